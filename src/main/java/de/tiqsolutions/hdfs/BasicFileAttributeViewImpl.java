@@ -67,14 +67,28 @@ class BasicFileAttributeViewImpl implements BasicFileAttributeView {
 		((HadoopFileSystem) path.getFileSystem()).getFileContext().setTimes(
 				((HadoopFileSystemPath) path).getPath(),
 				lastModifiedTime.toMillis(), lastAccessTime.toMillis());
+		((HadoopFileSystem) path.getFileSystem())
+				.invalidate(((HadoopFileSystemPath) path).getPath());
 
 	}
 
 	Map<String, Object> readAttributes(String attributes) throws IOException {
-		BasicFileAttributes attr = readAttributes();
+		Map<String, Object> ret = new HashMap<>();
+		readAttributes(readAttributes(), attributes, ret);
+		return ret;
+	}
+
+	/**
+	 * puts the requested attributes of this view and the views it extends
+	 * into {@code ret}
+	 * 
+	 * @param attr
+	 *            attributes of the kind returned by {@link #readAttributes()}
+	 */
+	void readAttributes(BasicFileAttributes attr, String attributes,
+			Map<String, Object> ret) {
 		List<String> attrlist = Arrays.asList(attributes.split(","));
 		boolean readall = attrlist.contains("*");
-		Map<String, Object> ret = new HashMap<>();
 		if (readall || attrlist.contains("fileKey"))
 			ret.put("fileKey", attr.fileKey());
 		if (readall || attrlist.contains("creationTime"))
@@ -93,7 +107,6 @@ class BasicFileAttributeViewImpl implements BasicFileAttributeView {
 			ret.put("lastModifiedTime", attr.lastModifiedTime());
 		if (readall || attrlist.contains("size"))
 			ret.put("size", attr.size());
-		return ret;
 	}
 
 }
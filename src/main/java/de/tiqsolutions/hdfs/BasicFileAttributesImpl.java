@@ -32,8 +32,8 @@ class BasicFileAttributesImpl implements BasicFileAttributes {
 	public BasicFileAttributesImpl(HadoopFileSystemPath path)
 			throws IOException {
 		this.path = path;
-		fileStatus = ((HadoopFileSystem) path.getFileSystem()).getFileContext()
-				.getFileStatus(path.getPath());
+		fileStatus = ((HadoopFileSystem) path.getFileSystem())
+				.getFileStatus(path);
 	}
 
 	@Override
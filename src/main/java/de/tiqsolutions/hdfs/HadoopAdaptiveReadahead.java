@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package de.tiqsolutions.hdfs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.OpenOption;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.io.IOUtils;
+
+/**
+ * Sequential reader which fetches the start of the next block on a background
+ * thread once a sequential reader comes close to the block boundary. The
+ * prefetch reads through a stream of its own positioned at the boundary, which
+ * replaces the current stream when the reader gets there. So the connection to
+ * the datanode of the next block is set up while the reader still consumes the
+ * current block, and the first bytes of the next block are already in a
+ * buffer of the pool. A seek drops a running prefetch without waiting for it,
+ * the prefetch releases its stream and buffer itself when it completes.
+ */
+class HadoopAdaptiveReadahead extends InputStream {
+
+	/** number of reads without seek until a reader counts as sequential */
+	private static final int SEQUENTIAL_READS = 2;
+
+	private static final class Prefetch {
+		private final FSDataInputStream stream;
+		private final ByteBuffer buffer;
+
+		Prefetch(FSDataInputStream stream, ByteBuffer buffer) {
+			this.stream = stream;
+			this.buffer = buffer;
+		}
+	}
+
+	private final HadoopFileSystem fileSystem;
+	private final HadoopFileSystemPath path;
+	private final Set<? extends OpenOption> options;
+	private final HadoopBufferPool pool;
+	private final int window;
+	/** fetched with the first sequential reads, negative until then */
+	private long blockSize = -1;
+	private long length;
+	private FSDataInputStream in;
+	private long pos;
+	private int sequentialReads = 0;
+	private long prefetchStart = -1;
+	private PrefetchTask task;
+	private Future<Prefetch> prefetch;
+	private ByteBuffer prefetched;
+	private final byte[] single = new byte[1];
+
+	HadoopAdaptiveReadahead(HadoopFileSystem fileSystem,
+			HadoopFileSystemPath path, Set<? extends OpenOption> options,
+			FSDataInputStream in) throws IOException {
+		this.fileSystem = fileSystem;
+		this.path = path;
+		this.options = options;
+		this.pool = fileSystem.getBufferPool();
+		this.in = in;
+		this.pos = in.getPos();
+		this.window = fileSystem.getSettings().getReadaheadAdaptiveBytes();
+	}
+
+	/**
+	 * @return the stream currently read
+	 */
+	FSDataInputStream getStream() {
+		return in;
+	}
+
+	long getPos() {
+		return pos;
+	}
+
+	void seek(long newPos) throws IOException {
+		if (newPos == pos)
+			return;
+		discardPrefetch();
+		in.seek(newPos);
+		pos = newPos;
+		sequentialReads = 0;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read(single, 0, 1) <= 0 ? -1 : single[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (prefetch != null && pos == prefetchStart)
+			switchStream();
+		int read;
+		if (prefetched != null) {
+			read = Math.min(len, prefetched.remaining());
+			prefetched.get(b, off, read);
+			if (!prefetched.hasRemaining()) {
+				pool.putBuffer(prefetched);
+				prefetched = null;
+			}
+		} else {
+			// stop at a prefetched boundary to switch the streams there
+			if (prefetch != null)
+				len = (int) Math.min(len, prefetchStart - pos);
+			read = in.read(b, off, len);
+			if (read < 0)
+				return read;
+		}
+		pos += read;
+		sequentialReads++;
+		startPrefetch();
+		return read;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return prefetched != null ? prefetched.remaining() : in.available();
+	}
+
+	@Override
+	public void close() throws IOException {
+		discardPrefetch();
+		in.close();
+	}
+
+	/**
+	 * reads the next block boundary ahead on a thread of the file system.
+	 * Once {@link #abandon()} was called, the task releases what it read
+	 * itself.
+	 */
+	private final class PrefetchTask implements Callable<Prefetch> {
+		private final long start;
+		private final int size;
+		private boolean abandoned;
+		private Prefetch result;
+
+		PrefetchTask(long start, int size) {
+			this.start = start;
+			this.size = size;
+		}
+
+		@Override
+		public Prefetch call() throws IOException {
+			synchronized (this) {
+				if (abandoned)
+					return null;
+			}
+			FSDataInputStream stream = fileSystem.open(path, options);
+			ByteBuffer buffer = null;
+			Prefetch p;
+			try {
+				stream.seek(start);
+				buffer = pool.getBuffer(false, size);
+				stream.readFully(buffer.array(), buffer.arrayOffset(), size);
+				buffer.limit(size);
+				fileSystem.getStatistics().incrementReadaheadPrefetches();
+				p = new Prefetch(stream, buffer);
+			} catch (IOException | RuntimeException e) {
+				pool.putBuffer(buffer);
+				IOUtils.closeStream(stream);
+				throw e;
+			}
+			synchronized (this) {
+				if (!abandoned) {
+					result = p;
+					return p;
+				}
+			}
+			release(p);
+			return null;
+		}
+
+		/**
+		 * @return the completed prefetch the caller has to release, or
+		 *         {@code null} if the task did not complete yet
+		 */
+		synchronized Prefetch abandon() {
+			abandoned = true;
+			Prefetch p = result;
+			result = null;
+			return p;
+		}
+	}
+
+	private void release(Prefetch p) {
+		pool.putBuffer(p.buffer);
+		IOUtils.closeStream(p.stream);
+	}
+
+	private void startPrefetch() {
+		if (prefetch != null || prefetched != null || window <= 0
+				|| blockSize == 0 || sequentialReads < SEQUENTIAL_READS)
+			return;
+		if (blockSize < 0) {
+			// only sequential readers pay for the status request
+			try {
+				FileStatus status = fileSystem.getFileStatus(path);
+				blockSize = status.getBlockSize();
+				length = status.getLen();
+			} catch (IOException e) {
+				blockSize = 0;
+			}
+			if (blockSize <= 0)
+				return;
+		}
+		long start = (pos / blockSize + 1) * blockSize;
+		if (start >= length || start - pos > window)
+			return;
+		prefetchStart = start;
+		task = new PrefetchTask(start, (int) Math.min(window, length - start));
+		prefetch = fileSystem.getExecutor().submit(task);
+	}
+
+	/**
+	 * continues with the stream of the prefetch, or with the current one if
+	 * the prefetch failed
+	 */
+	private void switchStream() throws IOException {
+		Future<Prefetch> future = prefetch;
+		prefetch = null;
+		task = null;
+		prefetchStart = -1;
+		Prefetch p;
+		try {
+			p = future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			throw new InterruptedIOException(e.getLocalizedMessage());
+		} catch (ExecutionException e) {
+			return;
+		}
+		in.close();
+		in = p.stream;
+		prefetched = p.buffer;
+	}
+
+	private void discardPrefetch() {
+		if (prefetched != null) {
+			pool.putBuffer(prefetched);
+			prefetched = null;
+		}
+		if (prefetch == null)
+			return;
+		// a task which did not start yet never runs, a running one releases
+		// its prefetch when it completes
+		prefetch.cancel(false);
+		Prefetch p = task.abandon();
+		if (p != null)
+			release(p);
+		prefetch = null;
+		task = null;
+		prefetchStart = -1;
+	}
+
+}
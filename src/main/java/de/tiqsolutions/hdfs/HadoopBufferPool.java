@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package de.tiqsolutions.hdfs;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.io.ByteBufferPool;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Pool of byte buffers in power of two size classes. Idle buffers are kept
+ * as long as their total size stays below the configured budget, buffers
+ * returned beyond that are left to the garbage collector. Only buffers handed
+ * out by the pool are taken back, others are ignored.
+ */
+public class HadoopBufferPool implements ByteBufferPool {
+
+	private static final int MIN_SHIFT = 12;
+	private static final int MAX_SHIFT = 30;
+
+	private final int defaultSize;
+	private final long maxPooledBytes;
+	private final List<Queue<ByteBuffer>> heapBuffers = new ArrayList<>();
+	private final List<Queue<ByteBuffer>> directBuffers = new ArrayList<>();
+	/** buffers handed out and not returned yet, compared by identity */
+	private final Map<ByteBuffer, Boolean> handedOut = new MapMaker()
+			.weakKeys().makeMap();
+	private final AtomicLong pooledBytes = new AtomicLong();
+	private final AtomicLong bytesInUse = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public HadoopBufferPool(int defaultSize, long maxPooledBytes) {
+		if (defaultSize <= 0)
+			throw new IllegalArgumentException("defaultSize");
+		this.defaultSize = defaultSize;
+		this.maxPooledBytes = maxPooledBytes;
+		for (int i = MIN_SHIFT; i <= MAX_SHIFT; i++) {
+			heapBuffers.add(new ConcurrentLinkedQueue<ByteBuffer>());
+			directBuffers.add(new ConcurrentLinkedQueue<ByteBuffer>());
+		}
+	}
+
+	private static int sizeClass(int length) {
+		int shift = 32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1);
+		return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+	}
+
+	private Queue<ByteBuffer> queue(boolean direct, int sizeClass) {
+		return direct ? directBuffers.get(sizeClass) : heapBuffers
+				.get(sizeClass);
+	}
+
+	/**
+	 * @return a cleared heap buffer of {@link #getDefaultSize()} bytes
+	 */
+	public ByteBuffer getBuffer() {
+		return getBuffer(false, defaultSize);
+	}
+
+	@Override
+	public ByteBuffer getBuffer(boolean direct, int length) {
+		if (length < 0)
+			throw new IllegalArgumentException("length");
+		if (length > 1 << MAX_SHIFT) {
+			misses.incrementAndGet();
+			return direct ? ByteBuffer.allocateDirect(length) : ByteBuffer
+					.allocate(length);
+		}
+		int sizeClass = sizeClass(length);
+		int capacity = 1 << (sizeClass + MIN_SHIFT);
+		ByteBuffer buffer = queue(direct, sizeClass).poll();
+		if (buffer != null) {
+			pooledBytes.addAndGet(-capacity);
+			hits.incrementAndGet();
+			buffer.clear();
+		} else {
+			misses.incrementAndGet();
+			buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer
+					.allocate(capacity);
+		}
+		bytesInUse.addAndGet(capacity);
+		handedOut.put(buffer, Boolean.TRUE);
+		return buffer;
+	}
+
+	@Override
+	public void putBuffer(ByteBuffer buffer) {
+		// a foreign buffer or one returned twice must not enter the pool
+		if (buffer == null || handedOut.remove(buffer) == null)
+			return;
+		int capacity = buffer.capacity();
+		bytesInUse.addAndGet(-capacity);
+		if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+			pooledBytes.addAndGet(-capacity);
+			return;
+		}
+		queue(buffer.isDirect(), sizeClass(capacity)).offer(buffer);
+	}
+
+	public int getDefaultSize() {
+		return defaultSize;
+	}
+
+	public long getMaxPooledBytes() {
+		return maxPooledBytes;
+	}
+
+	/**
+	 * @return the largest size class worth pooling, eight buffers of it fit
+	 *         into the budget. Callers needing more allocate exactly instead
+	 *         of rounding up to the next power of two.
+	 */
+	public int getMaxPooledSize() {
+		long size = Math.min(maxPooledBytes / 8, 1L << MAX_SHIFT);
+		return size < 1 << MIN_SHIFT ? 0 : (int) Long.highestOneBit(size);
+	}
+
+	/**
+	 * @return number of requests served from an idle buffer
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of requests which had to allocate a new buffer
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return bytes currently handed out and not yet returned
+	 */
+	public long getBytesInUse() {
+		return bytesInUse.get();
+	}
+
+	/**
+	 * @return bytes held by idle buffers
+	 */
+	public long getPooledBytes() {
+		return pooledBytes.get();
+	}
+
+}
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package de.tiqsolutions.hdfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Receives the files read by
+ * {@link HadoopFileSystem#readAll(Iterable, int, HadoopBulkReadHandler)} in
+ * the order they complete. The methods are called by the reading threads and
+ * may run concurrently.
+ */
+public interface HadoopBulkReadHandler {
+
+	/**
+	 * @param contents
+	 *            the whole file between position and limit, the buffer goes
+	 *            back to the pool when this method returns and must not be
+	 *            kept
+	 * @throws IOException
+	 *             stops the bulk read, which rethrows it
+	 */
+	void completed(Path path, ByteBuffer contents) throws IOException;
+
+	/**
+	 * called instead of {@link #completed(Path, ByteBuffer)} if a file could
+	 * not be read, the other files are read nevertheless
+	 * 
+	 * @throws IOException
+	 *             stops the bulk read, which rethrows it
+	 */
+	void failed(Path path, IOException e) throws IOException;
+
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package de.tiqsolutions.hdfs;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.util.concurrent.Semaphore;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.ipc.RemoteException;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Reads whole files on the executor of the file system. A semaphore bounds the
+ * number of files read at the same time, so paths are taken from the iterable
+ * only as fast as they are read. Small files are read into buffers of the
+ * pool, files above its largest sensible size class into buffers of their
+ * exact length.
+ */
+class HadoopBulkReader {
+
+	private final HadoopFileSystem fileSystem;
+	private final HadoopBufferPool pool;
+	private final int parallelism;
+	private final Semaphore permits;
+	private final HadoopBulkReadHandler handler;
+	private volatile Throwable handlerFailure;
+
+	HadoopBulkReader(HadoopFileSystem fileSystem, int parallelism,
+			HadoopBulkReadHandler handler) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism");
+		this.fileSystem = fileSystem;
+		this.pool = fileSystem.getBufferPool();
+		this.parallelism = parallelism;
+		this.permits = new Semaphore(parallelism);
+		this.handler = handler;
+	}
+
+	void read(Iterable<? extends Path> paths) throws IOException {
+		try {
+			for (Path path : paths) {
+				if (handlerFailure != null)
+					break;
+				if (!(path instanceof HadoopFileSystemPath)
+						|| !fileSystem.equals(path.getFileSystem()))
+					throw new ProviderMismatchException();
+				final HadoopFileSystemPath file = (HadoopFileSystemPath) path;
+				permits.acquire();
+				try {
+					fileSystem.getExecutor().execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								read(file);
+							} finally {
+								permits.release();
+							}
+						}
+					});
+				} catch (RuntimeException e) {
+					permits.release();
+					throw e;
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException(e.getLocalizedMessage());
+		} finally {
+			// no handler call happens after this method returned
+			permits.acquireUninterruptibly(parallelism);
+			permits.release(parallelism);
+		}
+		Throwable failure = handlerFailure;
+		if (failure != null) {
+			Throwables.propagateIfPossible(failure, IOException.class);
+			throw new IOException(failure);
+		}
+	}
+
+	private ByteBuffer readFile(HadoopFileSystemPath path) throws IOException {
+		try (FSDataInputStream in = fileSystem.open(path)) {
+			long length = fileSystem.getLength(in, path.getPath());
+			if (length > Integer.MAX_VALUE)
+				throw new IOException(String.format(
+						"%s is too large to be read at once", path));
+			ByteBuffer buffer = length <= pool.getMaxPooledSize() ? pool
+					.getBuffer(false, (int) length) : ByteBuffer
+					.allocate((int) length);
+			try {
+				in.readFully(buffer.array(), buffer.arrayOffset(),
+						(int) length);
+			} catch (IOException | RuntimeException e) {
+				pool.putBuffer(buffer);
+				throw e;
+			}
+			buffer.limit((int) length);
+			return buffer;
+		} catch (FileNotFoundException e) {
+			throw new NoSuchFileException(path.toString());
+		} catch (RemoteException e) {
+			HadoopFileSystemProvider.rethrowRemoteException(e, path);
+			return null;
+		}
+	}
+
+	private void read(HadoopFileSystemPath path) {
+		if (handlerFailure != null)
+			return;
+		try {
+			ByteBuffer buffer;
+			try {
+				buffer = readFile(path);
+			} catch (IOException e) {
+				handler.failed(path, e);
+				return;
+			}
+			try {
+				handler.completed(path, buffer);
+			} finally {
+				pool.putBuffer(buffer);
+			}
+		} catch (Throwable t) {
+			if (handlerFailure == null)
+				handlerFailure = t;
+		}
+	}
+
+}
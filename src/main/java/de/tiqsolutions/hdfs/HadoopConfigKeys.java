@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package de.tiqsolutions.hdfs;
+
+/**
+ * Configuration keys of the provider. They are read from the hadoop
+ * configuration and may be passed in the environment of
+ * {@link java.nio.file.FileSystems#newFileSystem(java.net.URI, java.util.Map)}.
+ */
+public final class HadoopConfigKeys {
+
+	/**
+	 * upper bound of idle bytes kept by the provider wide buffer pool, a file
+	 * system created with another value gets a pool of its own
+	 */
+	public static final String BUFFER_POOL_MAX_BYTES_KEY = "hdfssp.buffer-pool.max-bytes";
+	public static final long BUFFER_POOL_MAX_BYTES_DEFAULT = 64L * 1024 * 1024;
+
+	/** size of the buffers handed to the writer thread by write behind channels */
+	public static final String WRITE_BEHIND_BUFFER_SIZE_KEY = "hdfssp.write-behind.buffer-size";
+	public static final int WRITE_BEHIND_BUFFER_SIZE_DEFAULT = 1024 * 1024;
+	/** number of filled buffers a write behind channel may have in flight */
+	public static final String WRITE_BEHIND_BUFFERS_KEY = "hdfssp.write-behind.buffers";
+	public static final int WRITE_BEHIND_BUFFERS_DEFAULT = 4;
+
+	/** files of at least this size are copied to hadoop in parallel */
+	public static final String PARALLEL_COPY_THRESHOLD_KEY = "hdfssp.parallel-copy.threshold";
+	public static final long PARALLEL_COPY_THRESHOLD_DEFAULT = 256L * 1024 * 1024;
+	/** number of parallel copy threads, a value below 2 disables parallel copies */
+	public static final String PARALLEL_COPY_THREADS_KEY = "hdfssp.parallel-copy.threads";
+	public static final int PARALLEL_COPY_THREADS_DEFAULT = 4;
+
+	/** number of threads copying a tree with {@link HadoopCopyOption#REMOTE_COPY} */
+	public static final String TREE_COPY_THREADS_KEY = "hdfssp.tree-copy.threads";
+	public static final int TREE_COPY_THREADS_DEFAULT = 8;
+	/** trees with more files are copied by a DistCp job */
+	public static final String TREE_COPY_DISTCP_FILES_KEY = "hdfssp.tree-copy.distcp-files";
+	public static final long TREE_COPY_DISTCP_FILES_DEFAULT = 10000;
+	/** trees with more bytes are copied by a DistCp job */
+	public static final String TREE_COPY_DISTCP_BYTES_KEY = "hdfssp.tree-copy.distcp-bytes";
+	public static final long TREE_COPY_DISTCP_BYTES_DEFAULT = 16L * 1024 * 1024 * 1024;
+
+	/**
+	 * time in milliseconds a file status is cached, 0 disables the file
+	 * status cache
+	 */
+	public static final String STATUS_CACHE_TTL_KEY = "hdfssp.status-cache.ttl";
+	public static final long STATUS_CACHE_TTL_DEFAULT = 0;
+	/** maximum number of cached file status, least recently used go first */
+	public static final String STATUS_CACHE_MAX_ENTRIES_KEY = "hdfssp.status-cache.max-entries";
+	public static final long STATUS_CACHE_MAX_ENTRIES_DEFAULT = 10000;
+
+	/**
+	 * time in milliseconds the status of a directory listing answers
+	 * attribute reads of the listed paths, 0 disables it. Modifications of
+	 * other clients are not seen for that time.
+	 */
+	public static final String LISTING_STATUS_MAX_AGE_KEY = "hdfssp.listing-status.max-age";
+	public static final long LISTING_STATUS_MAX_AGE_DEFAULT = 0;
+
+	/** number of directories a tree walker lists at the same time */
+	public static final String WALKER_THREADS_KEY = "hdfssp.walker.threads";
+	public static final int WALKER_THREADS_DEFAULT = 8;
+	/** number of entries a tree walker keeps ahead of its consumer */
+	public static final String WALKER_QUEUE_SIZE_KEY = "hdfssp.walker.queue-size";
+	public static final int WALKER_QUEUE_SIZE_DEFAULT = 1024;
+
+	/**
+	 * number of listing batches a directory stream fetches ahead in the
+	 * background, 0 lists synchronously
+	 */
+	public static final String LISTING_PREFETCH_BATCHES_KEY = "hdfssp.listing.prefetch-batches";
+	public static final int LISTING_PREFETCH_BATCHES_DEFAULT = 0;
+
+	/**
+	 * bytes fetched ahead across a block boundary by channels opened with
+	 * {@link HadoopOpenOption#ADAPTIVE_READAHEAD}
+	 */
+	public static final String READAHEAD_ADAPTIVE_BYTES_KEY = "hdfssp.readahead.adaptive-bytes";
+	public static final int READAHEAD_ADAPTIVE_BYTES_DEFAULT = 4 * 1024 * 1024;
+
+	/**
+	 * time in milliseconds after which a positional read of a hdfs file
+	 * channel is hedged by a second read through another stream of the file,
+	 * 0 disables hedged reads
+	 */
+	public static final String HEDGED_READ_THRESHOLD_KEY = "hdfssp.hedged-read.threshold";
+	public static final long HEDGED_READ_THRESHOLD_DEFAULT = 0;
+
+	private HadoopConfigKeys() {
+	}
+
+}
@@ -6,5 +6,9 @@ package de.tiqsolutions.hdfs;
 import java.nio.file.CopyOption;
 
 public enum HadoopCopyOption implements CopyOption {
-	REMOTE_COPY;
+	REMOTE_COPY,
+	/**
+	 * leave targets alone which have the length and checksum of the source
+	 */
+	SKIP_UNCHANGED;
 }
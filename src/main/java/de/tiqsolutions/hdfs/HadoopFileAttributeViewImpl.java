@@ -20,12 +20,12 @@ package de.tiqsolutions.hdfs;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.UserPrincipal;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -51,23 +51,20 @@ class HadoopFileAttributeViewImpl extends PosixFileAttributeViewImpl implements
 	/**
 	 * @see FileSystemProvider#readAttributes(java.nio.file.Path, String,
 	 *      java.nio.file.LinkOption...)
-	 * @param attributes
-	 * @return
-	 * @throws IOException
 	 */
 	@Override
-	Map<String, Object> readAttributes(String attributes) throws IOException {
-		HadoopFileAttributes attr = readAttributes();
-		List<String> attrlist = Arrays.asList(attributes.split(","));
+	void readAttributes(BasicFileAttributes attributes, String names,
+			Map<String, Object> ret) {
+		super.readAttributes(attributes, names, ret);
+		HadoopFileAttributes attr = (HadoopFileAttributes) attributes;
+		List<String> attrlist = Arrays.asList(names.split(","));
 		boolean readall = attrlist.contains("*");
-		Map<String, Object> ret = new HashMap<>();
 		if (readall || attrlist.contains("isHidden"))
 			ret.put("isHidden", attr.isHidden());
 		if (readall || attrlist.contains("blockSize"))
 			ret.put("blockSize", attr.getBlockSize());
 		if (readall || attrlist.contains("replication"))
 			ret.put("replication", attr.getReplication());
-		return ret;
 
 	}
 
@@ -115,6 +112,8 @@ class HadoopFileAttributeViewImpl extends PosixFileAttributeViewImpl implements
 		((HadoopFileSystem) path.getFileSystem()).getFileContext()
 				.setReplication(((HadoopFileSystemPath) path).getPath(),
 						replication);
+		((HadoopFileSystem) path.getFileSystem())
+				.invalidate(((HadoopFileSystemPath) path).getPath());
 
 	}
 
@@ -0,0 +1,364 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package de.tiqsolutions.hdfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.util.Set;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.hdfs.client.HdfsDataInputStream;
+
+/**
+ * {@link FileChannel} on top of a hadoop stream. Positional reads are mapped to
+ * {@link org.apache.hadoop.fs.PositionedReadable} and neither use nor modify
+ * the position of the channel, so one channel can be shared by several
+ * threads doing random access. With
+ * {@link HadoopConfigKeys#HEDGED_READ_THRESHOLD_KEY} set, positional reads of
+ * hdfs files are hedged by a {@link HadoopHedgedReader}.
+ */
+class HadoopFileChannel extends FileChannel {
+
+	private final HadoopFileSystem fileSystem;
+	private final org.apache.hadoop.fs.Path path;
+	private final FSDataInputStream in;
+	private final FSDataOutputStream out;
+	private final HadoopHedgedReader hedgedReader;
+	private final boolean deleteOnClose;
+	private final HadoopBufferPool pool;
+	private final int bufferSize;
+	private volatile long size = -1;
+	/** end of the furthest positional read */
+	private volatile long reached = 0;
+
+	HadoopFileChannel(HadoopFileSystem fileSystem, HadoopFileSystemPath path,
+			Set<? extends OpenOption> options, FileAttribute<?>... attrs)
+			throws IOException {
+		this.fileSystem = fileSystem;
+		this.path = path.getPath();
+		boolean write = options.contains(StandardOpenOption.WRITE)
+				|| options.contains(StandardOpenOption.APPEND);
+		if (write && options.contains(StandardOpenOption.READ))
+			throw new UnsupportedOperationException();
+
+		deleteOnClose = options.contains(StandardOpenOption.DELETE_ON_CLOSE);
+		if (deleteOnClose) {
+			fileSystem.getFileContext().deleteOnExit(this.path);
+		}
+		pool = fileSystem.getBufferPool();
+		bufferSize = pool.getDefaultSize();
+		long hedgedReadThreshold = fileSystem.getSettings()
+				.getHedgedReadThreshold();
+		if (write) {
+			in = null;
+			out = fileSystem.create(path, options, attrs);
+			hedgedReader = null;
+		} else {
+			in = fileSystem.open(path, options);
+			out = null;
+			hedgedReader = hedgedReadThreshold > 0
+					&& in instanceof HdfsDataInputStream ? new HadoopHedgedReader(
+					fileSystem, this.path, (HdfsDataInputStream) in,
+					hedgedReadThreshold) : null;
+		}
+	}
+
+	private ByteBuffer borrowBuffer(long length) {
+		ByteBuffer buffer = pool.getBuffer(false,
+				(int) Math.min(bufferSize, length));
+		buffer.limit((int) Math.min(buffer.capacity(), length));
+		return buffer;
+	}
+
+	private void releaseBuffer(ByteBuffer buffer) {
+		pool.putBuffer(buffer);
+	}
+
+	private void ensureOpen() throws IOException {
+		if (!isOpen())
+			throw new ClosedChannelException();
+	}
+
+	private void ensureReadable() throws IOException {
+		ensureOpen();
+		if (in == null)
+			throw new NonReadableChannelException();
+	}
+
+	private void ensureWritable() throws IOException {
+		ensureOpen();
+		if (out == null)
+			throw new NonWritableChannelException();
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		ensureReadable();
+		synchronized (in) {
+			if (dst.hasArray()) {
+				int read = in.read(dst.array(),
+						dst.arrayOffset() + dst.position(), dst.remaining());
+				if (read > 0)
+					dst.position(dst.position() + read);
+				return read;
+			}
+			ByteBuffer buffer = borrowBuffer(dst.remaining());
+			try {
+				int read = in.read(buffer.array(), buffer.arrayOffset(),
+						buffer.remaining());
+				if (read > 0)
+					dst.put(buffer.array(), buffer.arrayOffset(), read);
+				return read;
+			} finally {
+				releaseBuffer(buffer);
+			}
+		}
+	}
+
+	@Override
+	public long read(ByteBuffer[] dsts, int offset, int length)
+			throws IOException {
+		long overall = 0;
+		for (int i = offset; i < offset + length; i++) {
+			if (!dsts[i].hasRemaining())
+				continue;
+			int read = read(dsts[i]);
+			if (read < 0)
+				return overall == 0 ? -1 : overall;
+			overall += read;
+			if (dsts[i].hasRemaining())
+				break;
+		}
+		return overall;
+	}
+
+	private int read(long position, byte[] b, int off, int len)
+			throws IOException {
+		int read = hedgedReader != null ? hedgedReader.read(position, b, off,
+				len) : in.read(position, b, off, len);
+		long end = read < 0 ? position : position + read;
+		if (end > reached)
+			reached = end;
+		return read;
+	}
+
+	@Override
+	public int read(ByteBuffer dst, long position) throws IOException {
+		if (position < 0)
+			throw new IllegalArgumentException("position");
+		ensureReadable();
+		if (!dst.hasRemaining())
+			return 0;
+		if (dst.hasArray()) {
+			int read = read(position, dst.array(),
+					dst.arrayOffset() + dst.position(), dst.remaining());
+			if (read > 0)
+				dst.position(dst.position() + read);
+			return read;
+		}
+		ByteBuffer buffer = borrowBuffer(dst.remaining());
+		try {
+			int read = read(position, buffer.array(), buffer.arrayOffset(),
+					buffer.remaining());
+			if (read > 0)
+				dst.put(buffer.array(), buffer.arrayOffset(), read);
+			return read;
+		} finally {
+			releaseBuffer(buffer);
+		}
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		ensureWritable();
+		int len = src.remaining();
+		synchronized (out) {
+			if (src.hasArray()) {
+				out.write(src.array(), src.arrayOffset() + src.position(), len);
+				src.position(src.limit());
+				return len;
+			}
+			ByteBuffer buffer = borrowBuffer(len);
+			try {
+				while (src.hasRemaining()) {
+					int n = Math.min(buffer.remaining(), src.remaining());
+					src.get(buffer.array(), buffer.arrayOffset(), n);
+					out.write(buffer.array(), buffer.arrayOffset(), n);
+				}
+			} finally {
+				releaseBuffer(buffer);
+			}
+		}
+		return len;
+	}
+
+	@Override
+	public long write(ByteBuffer[] srcs, int offset, int length)
+			throws IOException {
+		long overall = 0;
+		for (int i = offset; i < offset + length; i++) {
+			overall += write(srcs[i]);
+		}
+		return overall;
+	}
+
+	@Override
+	public int write(ByteBuffer src, long position) throws IOException {
+		ensureWritable();
+		if (position != out.getPos())
+			throw new UnsupportedOperationException();
+		return write(src);
+	}
+
+	@Override
+	public long position() throws IOException {
+		ensureOpen();
+		return in != null ? in.getPos() : out.getPos();
+	}
+
+	@Override
+	public FileChannel position(long newPosition) throws IOException {
+		if (newPosition < 0)
+			throw new IllegalArgumentException("newPosition");
+		ensureReadable();
+		synchronized (in) {
+			in.seek(newPosition);
+		}
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		if (out != null)
+			return out.getPos();
+		if (size < 0)
+			size = fileSystem.getLength(in, path);
+		// a file still being written may have grown beyond the known end
+		else if (Math.max(in.getPos(), reached) >= size)
+			size = fileSystem.getCurrentLength(path, size);
+		return size;
+	}
+
+	@Override
+	public FileChannel truncate(long size) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void force(boolean metaData) throws IOException {
+		ensureOpen();
+		if (out != null)
+			out.hsync();
+	}
+
+	@Override
+	public long transferTo(long position, long count, WritableByteChannel target)
+			throws IOException {
+		ensureReadable();
+		ByteBuffer buffer = borrowBuffer(count);
+		long overall = 0;
+		try {
+			while (overall < count) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), count - overall));
+				int read = read(buffer, position + overall);
+				if (read <= 0)
+					break;
+				buffer.flip();
+				while (buffer.hasRemaining())
+					target.write(buffer);
+				overall += read;
+			}
+		} finally {
+			releaseBuffer(buffer);
+		}
+		return overall;
+	}
+
+	@Override
+	public long transferFrom(ReadableByteChannel src, long position, long count)
+			throws IOException {
+		ensureWritable();
+		if (position != out.getPos())
+			throw new UnsupportedOperationException();
+		ByteBuffer buffer = borrowBuffer(count);
+		long overall = 0;
+		try {
+			while (overall < count) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), count - overall));
+				int read = src.read(buffer);
+				if (read <= 0)
+					break;
+				buffer.flip();
+				write(buffer);
+				overall += read;
+			}
+		} finally {
+			releaseBuffer(buffer);
+		}
+		return overall;
+	}
+
+	@Override
+	public MappedByteBuffer map(MapMode mode, long position, long size)
+			throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public FileLock lock(long position, long size, boolean shared)
+			throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public FileLock tryLock(long position, long size, boolean shared)
+			throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	protected void implCloseChannel() throws IOException {
+		if (hedgedReader != null)
+			hedgedReader.close();
+		if (in != null)
+			in.close();
+		if (out != null)
+			out.close();
+		if (deleteOnClose)
+			fileSystem.getFileContext().delete(path, false);
+		if (out != null || deleteOnClose)
+			fileSystem.invalidate(path);
+	}
+
+}
@@ -18,16 +18,23 @@
  *******************************************************************************/
 package de.tiqsolutions.hdfs;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.file.AccessDeniedException;
 import java.nio.file.AccessMode;
+import java.nio.file.DirectoryIteratorException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.DirectoryStream.Filter;
 import java.nio.file.FileStore;
@@ -37,6 +44,7 @@ import java.nio.file.NoSuchFileException;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.ProviderMismatchException;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.WatchService;
 import java.nio.file.attribute.FileAttribute;
@@ -47,15 +55,26 @@ import java.nio.file.attribute.UserPrincipalLookupService;
 import java.nio.file.spi.FileSystemProvider;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.annotation.Nullable;
 
+import org.apache.commons.lang.NullArgumentException;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.ByteBufferReadable;
 import org.apache.hadoop.fs.CreateFlag;
@@ -66,16 +85,23 @@ import org.apache.hadoop.fs.FileContext;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.GlobPattern;
 import org.apache.hadoop.fs.Options.CreateOpts;
+import org.apache.hadoop.fs.ReadOption;
 import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.fs.UnsupportedFileSystemException;
 import org.apache.hadoop.fs.permission.FsAction;
 import org.apache.hadoop.fs.permission.FsPermission;
-import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.client.HdfsDataInputStream;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.security.UserGroupInformation;
 
 import com.google.common.base.Predicate;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public final class HadoopFileSystem extends FileSystem {
 
@@ -86,6 +112,10 @@ public final class HadoopFileSystem extends FileSystem {
 		private final boolean deleteOnClose;
 		private final boolean byteBufferReadable;
 		private final int bufferSize;
+		private final EnumSet<ReadOption> readOptions;
+		private final HadoopAdaptiveReadahead readahead;
+		private long pendingPosition = -1;
+		private long size = -1;
 
 		public WrappedInputChannel(HadoopFileSystemPath path,
 				Set<? extends OpenOption> options, FileAttribute<?>... attrs)
@@ -101,18 +131,25 @@ public final class HadoopFileSystem extends FileSystem {
 				fileContext.deleteOnExit(this.path);
 			}
 
-			source = fileContext.open(path.getPath());
+			source = open(path, options);
 			byteBufferReadable = ByteBufferReadable.class.isInstance(source
 					.getWrappedStream());
 
-			if (!byteBufferReadable) {
-				bufferSize = ((HadoopFileSystemProvider) HadoopFileSystem.this
-						.provider()).getConfiguration().getInt(
-						DFSConfigKeys.DFS_STREAM_BUFFER_SIZE_KEY,
-						DFSConfigKeys.DFS_STREAM_BUFFER_SIZE_DEFAULT);
-
-			} else {
-				bufferSize = 0;
+			bufferSize = settings.getStreamBufferSize();
+			if (options.contains(HadoopOpenOption.SKIP_CHECKSUMS))
+				readOptions = EnumSet.of(ReadOption.SKIP_CHECKSUMS);
+			else if (options.contains(HadoopOpenOption.ZERO_COPY))
+				readOptions = EnumSet.noneOf(ReadOption.class);
+			else
+				readOptions = null;
+			try {
+				readahead = readOptions == null
+						&& options
+								.contains(HadoopOpenOption.ADAPTIVE_READAHEAD) ? new HadoopAdaptiveReadahead(
+						HadoopFileSystem.this, path, options, source) : null;
+			} catch (IOException | RuntimeException e) {
+				IOUtils.closeStream(source);
+				throw e;
 			}
 			channel = Channels.newChannel(source);
 		}
@@ -124,36 +161,118 @@ public final class HadoopFileSystem extends FileSystem {
 
 		@Override
 		public void close() throws IOException {
-			channel.close();
-			if (deleteOnClose)
+			try {
+				if (readahead != null)
+					readahead.close();
+			} finally {
+				channel.close();
+			}
+			if (deleteOnClose) {
 				fileContext.delete(path, false);
+				invalidate(path);
+			}
 
 		}
 
+		/**
+		 * applies a position set by {@link #position(long)}. Short forward
+		 * seeks are skipped within the open stream, everything else is a
+		 * regular seek that stays on the current replica.
+		 * 
+		 * @return false if the position is at or beyond the end of the file,
+		 *         it stays pending then
+		 */
+		private boolean seekPending() throws IOException {
+			if (pendingPosition < 0)
+				return true;
+			// asks again for the length of a file still being written
+			if (pendingPosition >= size())
+				return false;
+			if (readahead != null) {
+				readahead.seek(pendingPosition);
+				pendingPosition = -1;
+				return true;
+			}
+			long skip = pendingPosition - source.getPos();
+			if (skip > 0 && skip <= bufferSize) {
+				long n;
+				while (skip > 0 && (n = source.skip(skip)) > 0)
+					skip -= n;
+			}
+			if (skip != 0)
+				source.seek(pendingPosition);
+			pendingPosition = -1;
+			return true;
+		}
+
 		@Override
 		public int read(ByteBuffer dst) throws IOException {
+			if (!seekPending())
+				return -1;
+			return readSource(dst);
+		}
+
+		private int readSource(ByteBuffer dst) throws IOException {
+			if (readOptions != null)
+				return readEnhanced(dst);
+			if (readahead != null)
+				return readStream(readahead, dst);
 			if (byteBufferReadable)
 				return source.read(dst);
+			return readStream(source.getWrappedStream(), dst);
+		}
+
+		private int readStream(InputStream stream, ByteBuffer dst)
+				throws IOException {
 			if (dst.hasArray()) {
 				int pos = dst.position() + dst.arrayOffset();
-				int read = source.getWrappedStream().read(dst.array(), pos,
-						dst.remaining());
+				int read = stream.read(dst.array(), pos, dst.remaining());
 				if (read >= 0)
 					dst.position(pos + read);
 				return read;
 			}
 			// ok we have to use an other array
-			byte[] buffer = new byte[bufferSize];
-			int read;
-			int overall = 0;
-			while ((read = source.getWrappedStream().read(buffer, 0,
-					Math.min(bufferSize, dst.remaining()))) > 0) {
-				dst.put(buffer, 0, read);
-				overall += read;
+			HadoopBufferPool pool = bufferPool;
+			ByteBuffer buffer = pool.getBuffer(false,
+					Math.min(bufferSize, dst.remaining()));
+			try {
+				int read;
+				int overall = 0;
+				while ((read = stream.read(buffer.array(),
+						buffer.arrayOffset(),
+						Math.min(buffer.capacity(), dst.remaining()))) > 0) {
+					dst.put(buffer.array(), buffer.arrayOffset(), read);
+					overall += read;
+				}
+				return overall == 0 && read < 0 ? -1 : overall;
+			} finally {
+				pool.putBuffer(buffer);
 			}
-			;
-			return overall;
+		}
 
+		/**
+		 * reads a buffer handed out by the stream, which is a memory mapped
+		 * block for short circuit reads or a buffer of the pool otherwise,
+		 * copies it into {@code dst} and gives it back to the stream before
+		 * returning. A read asks for at most the default buffer size of the
+		 * pool, larger ones would make the pool allocate a buffer of their
+		 * size class.
+		 */
+		private int readEnhanced(ByteBuffer dst) throws IOException {
+			if (!dst.hasRemaining())
+				return 0;
+			ByteBuffer buffer = source.read(bufferPool,
+					Math.min(dst.remaining(), bufferPool.getDefaultSize()),
+					readOptions);
+			if (buffer == null)
+				return -1;
+			try {
+				int read = buffer.remaining();
+				dst.put(buffer);
+				return read;
+			} finally {
+				source.releaseBuffer(buffer);
+			}
 		}
 
 		@Override
@@ -163,19 +282,29 @@ public final class HadoopFileSystem extends FileSystem {
 
 		@Override
 		public long position() throws IOException {
-			return source.getPos();
+			if (pendingPosition >= 0)
+				return pendingPosition;
+			return readahead != null ? readahead.getPos() : source.getPos();
 		}
 
 		@Override
 		public SeekableByteChannel position(long newPosition)
 				throws IOException {
-			source.seekToNewSource(newPosition);
+			if (newPosition < 0)
+				throw new IllegalArgumentException("newPosition");
+			pendingPosition = newPosition;
 			return this;
 		}
 
 		@Override
 		public long size() throws IOException {
-			return fileContext.getFileStatus(path).getLen();
+			if (size < 0)
+				size = getLength(readahead != null ? readahead.getStream()
+						: source, path);
+			// a file still being written may have grown beyond the known end
+			else if (position() >= size)
+				size = getCurrentLength(path, size);
+			return size;
 		}
 
 		@Override
@@ -187,6 +316,7 @@ public final class HadoopFileSystem extends FileSystem {
 
 	private class WrappedOutputChannel implements SeekableByteChannel {
 		private final FSDataOutputStream source;
+		private final WriteBehindOutputStream writeBehind;
 		private final WritableByteChannel channel;
 		private final org.apache.hadoop.fs.Path path;
 		private final boolean deleteOnClose;
@@ -197,57 +327,22 @@ public final class HadoopFileSystem extends FileSystem {
 			this.path = path.getPath();
 			if (options.contains(StandardOpenOption.READ))
 				throw new UnsupportedOperationException();
-			EnumSet<CreateFlag> flags = EnumSet.of(CreateFlag.CREATE);
-			if (options.contains(StandardOpenOption.APPEND))
-				flags.add(CreateFlag.APPEND);
-			else if (!options.contains(StandardOpenOption.CREATE_NEW)
-					|| options.contains(StandardOpenOption.TRUNCATE_EXISTING))
-				flags.add(CreateFlag.OVERWRITE);
-			if (options.contains(StandardOpenOption.DSYNC)
-					|| options.contains(StandardOpenOption.SYNC))
-				flags.add(CreateFlag.SYNC_BLOCK);
 			deleteOnClose = options
 					.contains(StandardOpenOption.DELETE_ON_CLOSE);
 			if (deleteOnClose) {
 				fileContext.deleteOnExit(this.path);
 			}
-			List<CreateOpts> createOpts = new ArrayList<>();
-			createOpts.add(CreateOpts.perms(fromFileAttributes(attrs)));
-
-			long blocksize = ((HadoopFileSystemProvider) provider())
-					.getConfiguration().getLong(
-							DFSConfigKeys.DFS_BLOCK_SIZE_KEY,
-							DFSConfigKeys.DFS_BLOCK_SIZE_DEFAULT);
-
-			short replication = (short) ((HadoopFileSystemProvider) provider())
-					.getConfiguration().getInt(
-							DFSConfigKeys.DFS_REPLICATION_KEY,
-							DFSConfigKeys.DFS_REPLICATION_DEFAULT);
-
-			for (FileAttribute<?> attr : attrs) {
-				if ((HadoopFileAttributeViewImpl.NAME + ":blockSize")
-						.equals(attr.name())
-						&& Long.class.isInstance(attr.value())) {
-					blocksize = (Long) attr.value();
-				}
-				if ((HadoopFileAttributeViewImpl.NAME + ":replication")
-						.equals(attr.name())
-						&& Short.class.isInstance(attr.value())) {
-					replication = (Short) attr.value();
-				}
+			source = create(path, options, attrs);
+			if (options.contains(HadoopOpenOption.WRITE_BEHIND)) {
+				writeBehind = new WriteBehindOutputStream(source,
+						bufferPool,
+						settings.getWriteBehindBufferSize(),
+						settings.getWriteBehindBuffers(), getExecutor());
+				channel = Channels.newChannel(writeBehind);
+			} else {
+				writeBehind = null;
+				channel = Channels.newChannel(source);
 			}
-
-			int maxRepl = (int) ((HadoopFileSystemProvider) provider())
-					.getConfiguration().getInt(
-							DFSConfigKeys.DFS_REPLICATION_MAX_KEY,
-							DFSConfigKeys.DFS_REPLICATION_MAX_DEFAULT);
-
-			createOpts.add(CreateOpts.blockSize(blocksize));
-			createOpts.add(CreateOpts.repFac((short) Math.min(replication,
-					maxRepl)));
-			source = fileContext.create(path.getPath(), flags,
-					createOpts.toArray(new CreateOpts[createOpts.size()]));
-			channel = Channels.newChannel(source);
 		}
 
 		@Override
@@ -260,6 +355,7 @@ public final class HadoopFileSystem extends FileSystem {
 			channel.close();
 			if (deleteOnClose)
 				fileContext.delete(path, false);
+			invalidate(path);
 		}
 
 		@Override
@@ -274,7 +370,7 @@ public final class HadoopFileSystem extends FileSystem {
 
 		@Override
 		public long position() throws IOException {
-			return source.getPos();
+			return writeBehind != null ? writeBehind.getPos() : source.getPos();
 		}
 
 		@Override
@@ -285,7 +381,7 @@ public final class HadoopFileSystem extends FileSystem {
 
 		@Override
 		public long size() throws IOException {
-			return source.size();
+			return writeBehind != null ? writeBehind.getPos() : source.size();
 		}
 
 		@Override
@@ -295,10 +391,113 @@ public final class HadoopFileSystem extends FileSystem {
 
 	}
 
+	/**
+	 * Stream handed out by {@link Files#newInputStream(Path, OpenOption...)},
+	 * reads go to the hadoop stream without the locking of the channel
+	 * adapters.
+	 */
+	private class WrappedInputStream extends FilterInputStream {
+		private final org.apache.hadoop.fs.Path path;
+		private final boolean deleteOnClose;
+		private boolean closed = false;
+
+		WrappedInputStream(HadoopFileSystemPath path,
+				Set<? extends OpenOption> options) throws IOException {
+			super(open(path, options));
+			this.path = path.getPath();
+			deleteOnClose = options
+					.contains(StandardOpenOption.DELETE_ON_CLOSE);
+			if (deleteOnClose) {
+				fileContext.deleteOnExit(this.path);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			in.close();
+			if (deleteOnClose) {
+				fileContext.delete(path, false);
+				invalidate(path);
+			}
+		}
+
+	}
+
+	/**
+	 * Stream handed out by
+	 * {@link Files#newOutputStream(Path, OpenOption...)}, writes go to the
+	 * hadoop stream, or the write behind stream, without the locking of the
+	 * channel adapters.
+	 */
+	private class WrappedOutputStream extends FilterOutputStream {
+		private final org.apache.hadoop.fs.Path path;
+		private final boolean deleteOnClose;
+		private boolean closed = false;
+
+		WrappedOutputStream(HadoopFileSystemPath path,
+				Set<? extends OpenOption> options) throws IOException {
+			super(null);
+			this.path = path.getPath();
+			deleteOnClose = options
+					.contains(StandardOpenOption.DELETE_ON_CLOSE);
+			if (deleteOnClose) {
+				fileContext.deleteOnExit(this.path);
+			}
+			FSDataOutputStream source = create(path, options);
+			if (options.contains(HadoopOpenOption.WRITE_BEHIND)) {
+				out = new WriteBehindOutputStream(source,
+						bufferPool,
+						settings.getWriteBehindBufferSize(),
+						settings.getWriteBehindBuffers(), getExecutor());
+			} else {
+				out = source;
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			try {
+				out.close();
+			} finally {
+				if (deleteOnClose)
+					fileContext.delete(path, false);
+				invalidate(path);
+			}
+		}
+
+	}
+
 	private final HadoopFileSystemProvider provider;
 	private final FileContext fileContext;
+	private final Configuration configuration;
+	private final HadoopFileSystemSettings settings;
+	private final HadoopFileSystemStatistics statistics = new HadoopFileSystemStatistics();
+	private final HadoopBufferPool bufferPool;
+	private final Cache<org.apache.hadoop.fs.Path, FileStatus> statusCache;
+	private final long listingStatusMaxAge;
+	/** increased by operations on whole trees */
+	private final AtomicLong generation = new AtomicLong();
+	/** increased by modifications in a directory, directories share stripes */
+	private final AtomicLongArray directoryGenerations = new AtomicLongArray(
+			GENERATION_STRIPES);
+	private final Interner<HadoopFileSystemPath> directories = Interners
+			.newWeakInterner();
+	private ExecutorService executor;
 	private boolean isClosed = false;
 	static final String SCHEME = HdfsConstants.HDFS_URI_SCHEME;
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+	private static final int GENERATION_STRIPES = 64;
 
 	HadoopFileSystem(HadoopFileSystemProvider provider, URI uri)
 			throws UnsupportedFileSystemException {
@@ -311,7 +510,20 @@ public final class HadoopFileSystem extends FileSystem {
 		if (provider == null)
 			throw new NullPointerException();
 		this.provider = provider;
+		this.configuration = configuration;
+		this.settings = new HadoopFileSystemSettings(configuration);
+		HadoopBufferPool shared = provider.getBufferPool();
+		bufferPool = settings.getBufferPoolMaxBytes() == shared
+				.getMaxPooledBytes() ? shared : new HadoopBufferPool(
+				settings.getStreamBufferSize(),
+				settings.getBufferPoolMaxBytes());
 		fileContext = FileContext.getFileContext(uri, configuration);
+		long ttl = settings.getStatusCacheTtl();
+		statusCache = ttl <= 0 ? null : CacheBuilder.newBuilder()
+				.expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+				.maximumSize(settings.getStatusCacheMaxEntries())
+				.<org.apache.hadoop.fs.Path, FileStatus> build();
+		listingStatusMaxAge = settings.getListingStatusMaxAge();
 
 	}
 
@@ -319,6 +531,174 @@ public final class HadoopFileSystem extends FileSystem {
 		return fileContext;
 	}
 
+	Configuration getConfiguration() {
+		return configuration;
+	}
+
+	HadoopFileSystemSettings getSettings() {
+		return settings;
+	}
+
+	/**
+	 * @return the pool running background work of this file system
+	 */
+	synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+					.setDaemon(true).setNameFormat("hdfssp-%d").build());
+		}
+		return executor;
+	}
+
+	/**
+	 * @return the buffer pool of the provider, or one of its own if the file
+	 *         system was created with another
+	 *         {@link HadoopConfigKeys#BUFFER_POOL_MAX_BYTES_KEY}
+	 */
+	public HadoopBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	public HadoopFileSystemStatistics getStatistics() {
+		return statistics;
+	}
+
+	FileStatus getFileStatus(org.apache.hadoop.fs.Path path) throws IOException {
+		if (statusCache == null) {
+			statistics.incrementFileStatusRequests();
+			return fileContext.getFileStatus(path);
+		}
+		org.apache.hadoop.fs.Path key = fileContext.makeQualified(path);
+		FileStatus status = statusCache.getIfPresent(key);
+		if (status != null) {
+			statistics.incrementFileStatusCacheHits();
+			return status;
+		}
+		statistics.incrementFileStatusRequests();
+		status = fileContext.getFileStatus(path);
+		statusCache.put(key, status);
+		return status;
+	}
+
+	/**
+	 * @return the status of a path, paths of a directory listing answer it
+	 *         from the listing for a while
+	 * @see HadoopConfigKeys#LISTING_STATUS_MAX_AGE_KEY
+	 */
+	FileStatus getFileStatus(HadoopFileSystemPath path) throws IOException {
+		FileStatus status = path.getListedStatus(listingStatusMaxAge);
+		if (status != null) {
+			statistics.incrementListingStatusHits();
+			return status;
+		}
+		return getFileStatus(path.getPath());
+	}
+
+	/**
+	 * @return the canonical instance of a directory path, so paths below the
+	 *         same directory share its parsed hadoop path
+	 */
+	HadoopFileSystemPath intern(HadoopFileSystemPath directory) {
+		return directories.intern(directory);
+	}
+
+	/**
+	 * @return a counter increased by every modification through this file
+	 *         system in the parent directory of {@code path}, by tree
+	 *         operations anywhere, and by modifications in directories which
+	 *         share a stripe with the parent
+	 */
+	long getGeneration(org.apache.hadoop.fs.Path path) {
+		int stripe = getGenerationStripe(path);
+		return generation.get()
+				+ (stripe < 0 ? 0 : directoryGenerations.get(stripe));
+	}
+
+	/**
+	 * @return the stripe of the parent directory of an absolute path, -1 for
+	 *         the root
+	 */
+	private static int getGenerationStripe(org.apache.hadoop.fs.Path path) {
+		String name = path.toUri().getPath();
+		int end = name.lastIndexOf(org.apache.hadoop.fs.Path.SEPARATOR_CHAR);
+		if (end < 0 || name.length() <= 1)
+			return -1;
+		return (name.substring(0, end).hashCode() & Integer.MAX_VALUE)
+				% GENERATION_STRIPES;
+	}
+
+	/**
+	 * drops the cached status of a path and its parent
+	 */
+	void invalidate(org.apache.hadoop.fs.Path path) {
+		int stripe = getGenerationStripe(path);
+		if (stripe < 0)
+			generation.incrementAndGet();
+		else
+			directoryGenerations.incrementAndGet(stripe);
+		if (statusCache == null)
+			return;
+		org.apache.hadoop.fs.Path key = fileContext.makeQualified(path);
+		statusCache.invalidate(key);
+		if (key.getParent() != null)
+			statusCache.invalidate(key.getParent());
+	}
+
+	/**
+	 * drops the cached status of a path, its parent and everything below it.
+	 * This scans the whole cache, so it is left to operations which remove or
+	 * move a directory.
+	 */
+	void invalidateTree(org.apache.hadoop.fs.Path path) {
+		generation.incrementAndGet();
+		invalidate(path);
+		if (statusCache == null)
+			return;
+		String prefix = fileContext.makeQualified(path).toString();
+		if (!prefix.endsWith(org.apache.hadoop.fs.Path.SEPARATOR))
+			prefix += org.apache.hadoop.fs.Path.SEPARATOR;
+		for (org.apache.hadoop.fs.Path cached : statusCache.asMap().keySet()) {
+			if (cached.toString().startsWith(prefix))
+				statusCache.invalidate(cached);
+		}
+	}
+
+	/**
+	 * Drops cached attributes of the path and everything below it, the next
+	 * read asks the file system again. Changes made through this provider
+	 * are picked up without a refresh.
+	 * 
+	 * @see HadoopConfigKeys#STATUS_CACHE_TTL_KEY
+	 */
+	public void refresh(Path path) {
+		if (path == null)
+			throw new NullArgumentException("path");
+		invalidateTree(((HadoopFileSystemPath) path).getPath());
+	}
+
+	/**
+	 * @return the length of an open file, hdfs streams know the visible
+	 *         length without asking the namenode
+	 */
+	long getLength(FSDataInputStream in, org.apache.hadoop.fs.Path path)
+			throws IOException {
+		if (in instanceof HdfsDataInputStream)
+			return ((HdfsDataInputStream) in).getVisibleLength();
+		return getFileStatus(path).getLen();
+	}
+
+	/**
+	 * @return the length of an open file as known by the namenode now, but
+	 *         at least {@code known}. The visible length of a hdfs stream is
+	 *         fixed when it is opened and misses a file growing while it is
+	 *         written.
+	 */
+	long getCurrentLength(org.apache.hadoop.fs.Path path, long known)
+			throws IOException {
+		statistics.incrementFileStatusRequests();
+		return Math.max(known, fileContext.getFileStatus(path).getLen());
+	}
+
 	@Override
 	public FileSystemProvider provider() {
 		return provider;
@@ -328,6 +708,10 @@ public final class HadoopFileSystem extends FileSystem {
 	public void close() throws IOException {
 		provider.unregister(this);
 		isClosed = true;
+		synchronized (this) {
+			if (executor != null)
+				executor.shutdown();
+		}
 
 	}
 
@@ -432,8 +816,141 @@ public final class HadoopFileSystem extends FileSystem {
 				attrs);
 	}
 
+	InputStream newInputStream(Path path, OpenOption... options)
+			throws IOException {
+		Set<OpenOption> set = new HashSet<>(Arrays.asList(options));
+		if (set.contains(StandardOpenOption.WRITE)
+				|| set.contains(StandardOpenOption.APPEND))
+			throw new UnsupportedOperationException();
+		return new WrappedInputStream((HadoopFileSystemPath) path, set);
+	}
+
+	OutputStream newOutputStream(Path path, OpenOption... options)
+			throws IOException {
+		Set<OpenOption> set = new HashSet<>(Arrays.asList(options));
+		if (set.contains(StandardOpenOption.READ))
+			throw new IllegalArgumentException("READ not allowed");
+		if (set.isEmpty()) {
+			set.add(StandardOpenOption.CREATE);
+			set.add(StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		set.add(StandardOpenOption.WRITE);
+		return new WrappedOutputStream((HadoopFileSystemPath) path, set);
+	}
+
+	FileChannel newFileChannel(Path path, Set<? extends OpenOption> options,
+			FileAttribute<?>... attrs) throws IOException {
+		return new HadoopFileChannel(this, (HadoopFileSystemPath) path,
+				options, attrs);
+	}
+
+	FSDataInputStream open(HadoopFileSystemPath path) throws IOException {
+		return fileContext.open(path.getPath());
+	}
+
+	/**
+	 * opens a file and applies the caching hints of {@link HadoopOpenOption}
+	 * and {@link HadoopReadaheadOption}
+	 */
+	FSDataInputStream open(HadoopFileSystemPath path,
+			Set<? extends OpenOption> options) throws IOException {
+		FSDataInputStream in = open(path);
+		// the hints are ignored by streams which do not support them
+		for (OpenOption option : options) {
+			if (option instanceof HadoopReadaheadOption) {
+				try {
+					in.setReadahead(((HadoopReadaheadOption) option)
+							.getBytes());
+				} catch (UnsupportedOperationException e) {
+				}
+			}
+		}
+		if (options.contains(HadoopOpenOption.DROP_BEHIND)) {
+			try {
+				in.setDropBehind(true);
+			} catch (UnsupportedOperationException e) {
+			}
+		}
+		return in;
+	}
+
+	FSDataOutputStream create(HadoopFileSystemPath path,
+			Set<? extends OpenOption> options, FileAttribute<?>... attrs)
+			throws IOException {
+		EnumSet<CreateFlag> flags = EnumSet.of(CreateFlag.CREATE);
+		if (options.contains(StandardOpenOption.APPEND))
+			flags.add(CreateFlag.APPEND);
+		else if (!options.contains(StandardOpenOption.CREATE_NEW)
+				|| options.contains(StandardOpenOption.TRUNCATE_EXISTING))
+			flags.add(CreateFlag.OVERWRITE);
+		if (options.contains(StandardOpenOption.DSYNC)
+				|| options.contains(StandardOpenOption.SYNC))
+			flags.add(CreateFlag.SYNC_BLOCK);
+		List<CreateOpts> createOpts = new ArrayList<>();
+		createOpts.add(CreateOpts.perms(fromFileAttributes(attrs)));
+
+		long blocksize = getBlockSize(attrs);
+
+		short replication = settings.getReplication();
+
+		for (FileAttribute<?> attr : attrs) {
+			if ((HadoopFileAttributeViewImpl.NAME + ":replication")
+					.equals(attr.name())
+					&& Short.class.isInstance(attr.value())) {
+				replication = (Short) attr.value();
+			}
+		}
+
+		int maxRepl = settings.getMaxReplication();
+
+		createOpts.add(CreateOpts.blockSize(blocksize));
+		createOpts.add(CreateOpts.repFac((short) Math.min(replication,
+				maxRepl)));
+		invalidate(path.getPath());
+		return fileContext.create(path.getPath(), flags,
+				createOpts.toArray(new CreateOpts[createOpts.size()]));
+	}
+
+	/**
+	 * @return the block size of files created with the given attributes
+	 */
+	long getBlockSize(FileAttribute<?>... attrs) {
+		for (FileAttribute<?> attr : attrs) {
+			if ((HadoopFileAttributeViewImpl.NAME + ":blockSize")
+					.equals(attr.name())
+					&& Long.class.isInstance(attr.value())) {
+				return (Long) attr.value();
+			}
+		}
+		return settings.getBlockSize();
+	}
+
+	/**
+	 * Opens a writer assembling {@code target} from {@code parts} channels
+	 * which may be written concurrently.
+	 * 
+	 * @see HadoopParallelWriter
+	 */
+	public HadoopParallelWriter newParallelWriter(Path target, int parts,
+			FileAttribute<?>... attrs) throws IOException {
+		if (target == null)
+			throw new NullArgumentException("target");
+		if (!equals(target.getFileSystem()))
+			throw new ProviderMismatchException();
+		return new HadoopParallelWriter(this, (HadoopFileSystemPath) target,
+				parts, attrs);
+	}
+
 	void delete(Path path, boolean recursive) throws IOException {
-		fileContext.delete(((HadoopFileSystemPath) path).getPath(), recursive);
+		try {
+			fileContext.delete(((HadoopFileSystemPath) path).getPath(),
+					recursive);
+		} finally {
+			if (recursive)
+				invalidateTree(((HadoopFileSystemPath) path).getPath());
+			else
+				invalidate(((HadoopFileSystemPath) path).getPath());
+		}
 	}
 
 	static FsPermission fromPosixPermissions(
@@ -492,6 +1009,10 @@ public final class HadoopFileSystem extends FileSystem {
 
 	void createDirectory(Path dir, FileAttribute<?>... attrs)
 			throws IOException {
+		// the root has no parent to create it in, but always exists
+		if (dir.toAbsolutePath().getNameCount() == 0)
+			return;
+		invalidate(((HadoopFileSystemPath) dir).getPath());
 		try {
 			fileContext.mkdir(((HadoopFileSystemPath) dir).getPath(),
 					fromFileAttributes(attrs), false);
@@ -503,11 +1024,169 @@ public final class HadoopFileSystem extends FileSystem {
 		}
 	}
 
+	/**
+	 * Reads a whole file with a single open. The length is taken from the
+	 * open stream, so the array is allocated once and no status is
+	 * requested from hdfs.
+	 */
+	byte[] readAllBytes(HadoopFileSystemPath path) throws IOException {
+		try (FSDataInputStream in = open(path)) {
+			long length = getLength(in, path.getPath());
+			if (length > MAX_ARRAY_SIZE)
+				throw new OutOfMemoryError("Required array size too large");
+			byte[] bytes = new byte[(int) length];
+			int count = 0;
+			for (int n; count < bytes.length
+					&& (n = in.read(bytes, count, bytes.length - count)) > 0;)
+				count += n;
+			if (count < bytes.length)
+				return Arrays.copyOf(bytes, count);
+			int n = in.read();
+			if (n < 0)
+				return bytes;
+			// the file has grown since it was opened
+			ByteArrayOutputStream grown = new ByteArrayOutputStream(
+					bytes.length + settings.getStreamBufferSize());
+			grown.write(bytes);
+			grown.write(n);
+			byte[] buffer = new byte[settings.getStreamBufferSize()];
+			while ((n = in.read(buffer)) > 0)
+				grown.write(buffer, 0, n);
+			return grown.toByteArray();
+		} catch (FileNotFoundException e) {
+			throw new NoSuchFileException(path.toString());
+		}
+	}
+
+	/**
+	 * Reads several whole files, at most {@code parallelism} of them at the
+	 * same time. A path given more than once is read once.
+	 * 
+	 * @return the contents by path, in the order of {@code paths}, with a
+	 *         single entry for paths given more than once
+	 * @throws IOException
+	 *             the first failed read, the remaining files are not read
+	 */
+	public Map<Path, byte[]> readAllBytes(Collection<? extends Path> paths,
+			int parallelism) throws IOException {
+		if (paths == null)
+			throw new NullArgumentException("paths");
+		Set<Path> unique = new LinkedHashSet<Path>(paths);
+		final Map<Path, byte[]> contents = new ConcurrentHashMap<>();
+		readAll(unique, parallelism, new HadoopBulkReadHandler() {
+			@Override
+			public void completed(Path path, ByteBuffer buffer) {
+				byte[] bytes = new byte[buffer.remaining()];
+				buffer.get(bytes);
+				contents.put(path, bytes);
+			}
+
+			@Override
+			public void failed(Path path, IOException e) throws IOException {
+				throw e;
+			}
+		});
+		Map<Path, byte[]> result = new LinkedHashMap<>();
+		for (Path path : unique)
+			result.put(path, contents.get(path));
+		return result;
+	}
+
+	/**
+	 * Reads whole files concurrently and hands them to {@code handler} as
+	 * they complete. At most {@code parallelism} files are read at the same
+	 * time, the paths are taken from {@code paths} as reads finish, so it may
+	 * be a lazily produced sequence. The contents are passed in buffers of
+	 * the pool of this file system, files above
+	 * {@link HadoopBufferPool#getMaxPooledSize()} in buffers of their exact
+	 * length. A file which cannot be read is reported to
+	 * {@link HadoopBulkReadHandler#failed(Path, IOException)} without
+	 * stopping the others.
+	 * 
+	 * @throws IOException
+	 *             thrown by the handler, no further files are read then
+	 */
+	public void readAll(Iterable<? extends Path> paths, int parallelism,
+			HadoopBulkReadHandler handler) throws IOException {
+		if (paths == null)
+			throw new NullArgumentException("paths");
+		if (handler == null)
+			throw new NullArgumentException("handler");
+		new HadoopBulkReader(this, parallelism, handler).read(paths);
+	}
+
+	/**
+	 * Walks the tree below {@code start}, listing several directories
+	 * concurrently. Like {@link Files#walk(Path, int, java.nio.file.FileVisitOption...)}
+	 * the stream starts with {@code start} itself, the order of the other
+	 * entries is undefined. The stream must be closed to stop the listing
+	 * threads.
+	 * 
+	 * @param maxDepth
+	 *            number of directory levels to descend, 0 returns only the
+	 *            start
+	 * @param descend
+	 *            decides whether a directory is listed, before it is
+	 */
+	public DirectoryStream<Path> walk(Path start, int maxDepth,
+			Filter<? super Path> descend) throws IOException {
+		if (start == null)
+			throw new NullArgumentException("start");
+		if (descend == null)
+			throw new NullArgumentException("descend");
+		if (!equals(start.getFileSystem()))
+			throw new ProviderMismatchException();
+		return new HadoopTreeWalker(this, (HadoopFileSystemPath) start,
+				maxDepth, descend);
+	}
+
+	/**
+	 * Lists the paths below {@code dir} matching a hadoop glob pattern. The
+	 * pattern is evaluated by the file system and may span several levels,
+	 * like <code>2024-*&#47;part-*</code>, only matching entries become paths
+	 * and they carry the status of the listing.
+	 * 
+	 * @see org.apache.hadoop.fs.FileContext.Util#globStatus(org.apache.hadoop.fs.Path)
+	 */
+	public DirectoryStream<Path> newDirectoryStream(Path dir, String glob)
+			throws IOException {
+		if (dir == null)
+			throw new NullArgumentException("dir");
+		if (glob == null)
+			throw new NullArgumentException("glob");
+		if (!equals(dir.getFileSystem()))
+			throw new ProviderMismatchException();
+		FileStatus[] matches = fileContext.util().globStatus(
+				new org.apache.hadoop.fs.Path(
+						((HadoopFileSystemPath) dir).getPath(), glob));
+		final List<Path> paths = new ArrayList<>();
+		if (matches != null) {
+			for (FileStatus status : matches)
+				paths.add(new HadoopFileSystemPath(this, status));
+		}
+		return new DirectoryStream<Path>() {
+			@Override
+			public void close() throws IOException {
+			}
+
+			@Override
+			public Iterator<Path> iterator() {
+				return Iterators.unmodifiableIterator(paths.iterator());
+			}
+		};
+	}
+
 	DirectoryStream<Path> newDirectoryStream(final Path dir,
 			final Filter<? super Path> filter) throws IOException {
 
-		final RemoteIterator<FileStatus> iter = getFileContext().listStatus(
+		RemoteIterator<FileStatus> listing = getFileContext().listStatus(
 				((HadoopFileSystemPath) dir).getPath());
+		int prefetch = settings.getListingPrefetchBatches();
+		final PrefetchingStatusIterator prefetching = prefetch > 0 ? new PrefetchingStatusIterator(
+				listing, prefetch, settings.getListLimit(), getExecutor())
+				: null;
+		final RemoteIterator<FileStatus> iter = prefetching != null ? prefetching
+				: listing;
 
 		final Predicate<Path> predicate = new Predicate<Path>() {
 			@Override
@@ -515,7 +1194,7 @@ public final class HadoopFileSystem extends FileSystem {
 				try {
 					return filter.accept(input);
 				} catch (IOException e) {
-					throw new RuntimeException(e.getLocalizedMessage(), e);
+					throw new DirectoryIteratorException(e);
 				}
 			}
 		};
@@ -527,7 +1206,7 @@ public final class HadoopFileSystem extends FileSystem {
 				try {
 					return iter.hasNext();
 				} catch (IOException e) {
-					return false;
+					throw new DirectoryIteratorException(e);
 				}
 			}
 
@@ -535,10 +1214,9 @@ public final class HadoopFileSystem extends FileSystem {
 			public Path next() {
 				try {
 					return new HadoopFileSystemPath(
-							(HadoopFileSystem) dir.getFileSystem(), iter.next()
-									.getPath().toUri());
+							(HadoopFileSystem) dir.getFileSystem(), iter.next());
 				} catch (IOException e) {
-					throw new RuntimeException(e.getLocalizedMessage(), e);
+					throw new DirectoryIteratorException(e);
 				}
 			}
 
@@ -553,6 +1231,8 @@ public final class HadoopFileSystem extends FileSystem {
 
 			@Override
 			public void close() throws IOException {
+				if (prefetching != null)
+					prefetching.close();
 			}
 
 			@Override
@@ -571,8 +1251,7 @@ public final class HadoopFileSystem extends FileSystem {
 
 	void checkAccess(Path path, AccessMode... modes) throws IOException {
 		try {
-			FileStatus fileStatus = getFileContext().getFileStatus(
-					((HadoopFileSystemPath) path).getPath());
+			FileStatus fileStatus = getFileStatus((HadoopFileSystemPath) path);
 			if (modes == null || modes.length == 0)
 				return;
 
@@ -21,39 +21,214 @@ package de.tiqsolutions.hdfs;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.file.FileSystem;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
 import java.nio.file.WatchEvent.Kind;
 import java.nio.file.WatchEvent.Modifier;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
-import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.NullArgumentException;
-
-import com.google.common.base.Predicate;
-import com.google.common.collect.Collections2;
-
+import org.apache.hadoop.fs.FileStatus;
+
+/**
+ * Path of a {@link HadoopFileSystem}. The path is kept as an immutable array of
+ * names, the {@link URI} is only built when asked for. Paths without scheme
+ * are resolved against the root of the default file system, paths with a
+ * trailing separator denote a directory when another path is resolved against
+ * them, as URIs do.
+ */
 class HadoopFileSystemPath implements Path {
 
+	private static final String[] NO_NAMES = new String[0];
+	private static final String PARENT = "..";
+	private static final String CURRENT = ".";
+
 	private final HadoopFileSystem fileSystem;
-	private final URI base;
+	private final String scheme;
+	private final String authority;
+	private final boolean rooted;
+	private final String[] names;
+	private final boolean trailingSeparator;
+	private volatile URI uri;
+	private int hash;
+	private volatile HadoopFileSystemPath absolutePath;
+	private volatile HadoopFileSystemPath parent;
+	private volatile org.apache.hadoop.fs.Path hadoopPath;
+	// status taken from a directory listing, not part of the identity
+	private final FileStatus listedStatus;
+	private final long listedTime;
+	private final long listedGeneration;
 
 	public org.apache.hadoop.fs.Path getPath() {
-		return new org.apache.hadoop.fs.Path(toAbsolutePath().toUri());
+		org.apache.hadoop.fs.Path p = hadoopPath;
+		if (p == null) {
+			p = new org.apache.hadoop.fs.Path(toAbsolutePath().toUri());
+			hadoopPath = p;
+		}
+		return p;
 	}
 
 	public HadoopFileSystemPath(HadoopFileSystem fileSystem, URI base) {
+		this(fileSystem, base, null);
+	}
+
+	/**
+	 * creates the path of a directory entry which remembers the status of
+	 * the listing
+	 */
+	HadoopFileSystemPath(HadoopFileSystem fileSystem, FileStatus status) {
+		this(fileSystem, toUri(status), status);
+		this.hadoopPath = status.getPath();
+	}
+
+	private static URI toUri(FileStatus status) {
+		if (status == null)
+			throw new NullArgumentException("status");
+		return status.getPath().toUri();
+	}
+
+	private HadoopFileSystemPath(HadoopFileSystem fileSystem, URI base,
+			FileStatus status) {
 		if (fileSystem == null)
 			throw new NullArgumentException("fileSystem");
 		if (base == null)
 			throw new NullArgumentException("base");
 		this.fileSystem = fileSystem;
-		this.base = base;
+		this.scheme = base.getScheme();
+		this.authority = base.getAuthority();
+		String path = base.getPath() == null ? "" : base.getPath();
+		this.rooted = scheme != null || path.startsWith("/");
+		this.names = split(path);
+		this.trailingSeparator = names.length > 0 && path.endsWith("/");
+		this.uri = base;
+		this.listedStatus = status;
+		this.listedTime = status == null ? 0 : System.nanoTime();
+		this.listedGeneration = status == null ? 0 : fileSystem
+				.getGeneration(status.getPath());
+	}
+
+	private HadoopFileSystemPath(HadoopFileSystem fileSystem, String scheme,
+			String authority, boolean rooted, String[] names,
+			boolean trailingSeparator) {
+		this.fileSystem = fileSystem;
+		this.scheme = scheme;
+		this.authority = authority;
+		this.rooted = rooted;
+		this.names = names;
+		this.trailingSeparator = names.length > 0 && trailingSeparator;
+		this.listedStatus = null;
+		this.listedTime = 0;
+		this.listedGeneration = 0;
+	}
+
+	private HadoopFileSystemPath relative(String[] names,
+			boolean trailingSeparator) {
+		return new HadoopFileSystemPath(fileSystem, null, null, false, names,
+				trailingSeparator);
+	}
+
+	private HadoopFileSystemPath sameRoot(String[] names,
+			boolean trailingSeparator) {
+		return new HadoopFileSystemPath(fileSystem, scheme, authority, rooted,
+				names, trailingSeparator);
+	}
+
+	private static String[] split(String path) {
+		int count = 0;
+		for (int i = 0, start = 0; i <= path.length(); i++) {
+			if (i == path.length() || path.charAt(i) == '/') {
+				if (i > start)
+					count++;
+				start = i + 1;
+			}
+		}
+		if (count == 0)
+			return NO_NAMES;
+		String[] names = new String[count];
+		count = 0;
+		for (int i = 0, start = 0; i <= path.length(); i++) {
+			if (i == path.length() || path.charAt(i) == '/') {
+				if (i > start)
+					names[count++] = path.substring(start, i);
+				start = i + 1;
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * removes "." and resolves ".." names like {@link URI#normalize()}, the
+	 * array itself is returned if there is nothing to remove
+	 */
+	private static String[] normalize(String[] names) {
+		boolean dots = false;
+		for (String name : names) {
+			if (CURRENT.equals(name) || PARENT.equals(name)) {
+				dots = true;
+				break;
+			}
+		}
+		if (!dots)
+			return names;
+		List<String> normalized = new ArrayList<>(names.length);
+		for (String name : names) {
+			if (CURRENT.equals(name))
+				continue;
+			int last = normalized.size() - 1;
+			if (PARENT.equals(name) && last >= 0
+					&& !PARENT.equals(normalized.get(last)))
+				normalized.remove(last);
+			else
+				normalized.add(name);
+		}
+		return normalized.toArray(new String[normalized.size()]);
+	}
+
+	private static HadoopFileSystemPath checkPath(Path path) {
+		if (path == null)
+			throw new NullArgumentException("path");
+		if (!(path instanceof HadoopFileSystemPath))
+			throw new ProviderMismatchException();
+		return (HadoopFileSystemPath) path;
+	}
+
+	private URI getDefaultUri() {
+		return fileSystem.getFileContext().getDefaultFileSystem().getUri();
+	}
+
+	/**
+	 * @return the names of the absolute path, paths without scheme are
+	 *         normalized as {@link #toAbsolutePath()} does
+	 */
+	private String[] getAbsoluteNames() {
+		return scheme == null ? normalize(names) : names;
+	}
+
+	/**
+	 * @return the status of the listing this path was taken from, if it is
+	 *         at most {@code maxAge} milliseconds old and nothing in the
+	 *         listed directory was modified through the file system since,
+	 *         null otherwise
+	 */
+	FileStatus getListedStatus(long maxAge) {
+		if (listedStatus == null
+				|| listedGeneration != fileSystem.getGeneration(listedStatus
+						.getPath())
+				|| System.nanoTime() - listedTime > TimeUnit.MILLISECONDS
+						.toNanos(maxAge))
+			return null;
+		return listedStatus;
 	}
 
 	@Override
@@ -63,86 +238,74 @@ class HadoopFileSystemPath implements Path {
 
 	@Override
 	public boolean isAbsolute() {
-		return base.isAbsolute();
+		return scheme != null;
 	}
 
 	@Override
 	public Path getRoot() {
-		return new HadoopFileSystemPath(fileSystem, fileSystem.getFileContext()
-				.getDefaultFileSystem().getUri()).relativize(fileSystem
-				.getPath("/"));
+		if (!rooted)
+			return null;
+		return sameRoot(NO_NAMES, false);
 	}
 
 	@Override
 	public Path getFileName() {
-		Path p = getParent();
-		return p == null ? null : p.relativize(this);
+		if (names.length == 0)
+			return null;
+		return relative(new String[] { names[names.length - 1] },
+				trailingSeparator);
 	}
 
 	@Override
 	public Path getParent() {
-		if (getNameCount() == 0)
-			return getRoot();
-		URI p = base
-				.resolve(base.getPath().endsWith(fileSystem.getSeparator()) ? ".."
-						: ".");
-		if (URI.create("").equals(p))
-			return getRoot();
-		return new HadoopFileSystemPath(fileSystem, p);
+		if (names.length == 0 || names.length == 1 && !rooted)
+			return null;
+		HadoopFileSystemPath p = parent;
+		if (p == null) {
+			p = sameRoot(Arrays.copyOf(names, names.length - 1), true);
+			// only qualified paths are equal exactly if they look the same
+			if (isAbsolute())
+				p = fileSystem.intern(p);
+			parent = p;
+		}
+		return p;
 	}
 
 	@Override
 	public int getNameCount() {
-		return Collections2.filter(
-				Arrays.asList(base.normalize().getPath()
-						.split(fileSystem.getSeparator())),
-				new Predicate<String>() {
-
-					@Override
-					public boolean apply(String input) {
-						return input != null && !input.isEmpty();
-					}
-				}).size();
+		return names.length;
 	}
 
 	@Override
 	public Path getName(int index) {
-		int c = getNameCount();
-		if (index >= c || index < 0)
+		if (index >= names.length || index < 0)
 			return null;
-		Path p = this;
-		for (int i = 0; i < c - index - 1; i++) {
-			p = p.getParent();
-		}
-		return p.getFileName();
+		return relative(new String[] { names[index] },
+				index < names.length - 1 || trailingSeparator);
 	}
 
 	@Override
 	public Path subpath(int beginIndex, int endIndex) {
-		Path r = null;
-		int i = 0;
-		for (Path p : this) {
-			if (i++ == beginIndex)
-				r = p;
-			else if (i > beginIndex && i <= endIndex) {
-				r = r.resolve(p);
-			}
-		}
-		return r;
-	}
-
-	private boolean startsWith(Iterator<Path> i1, Iterator<Path> i2) {
-		while (i1.hasNext() && i2.hasNext()) {
-			if (!i1.next().equals(i2.next()))
-				return false;
-		}
-		return !i2.hasNext();
+		if (beginIndex < 0 || endIndex > names.length
+				|| beginIndex >= endIndex)
+			throw new IllegalArgumentException();
+		return relative(Arrays.copyOfRange(names, beginIndex, endIndex),
+				endIndex < names.length || trailingSeparator);
 	}
 
 	@Override
 	public boolean startsWith(Path other) {
-		return startsWith(this.iterator(), other.iterator());
-
+		if (!(other instanceof HadoopFileSystemPath))
+			return false;
+		HadoopFileSystemPath o = (HadoopFileSystemPath) other;
+		if (!fileSystem.equals(o.fileSystem) || rooted != o.rooted
+				|| o.names.length > names.length)
+			return false;
+		for (int i = 0; i < o.names.length; i++) {
+			if (!names[i].equals(o.names[i]))
+				return false;
+		}
+		return true;
 	}
 
 	@Override
@@ -153,8 +316,23 @@ class HadoopFileSystemPath implements Path {
 
 	@Override
 	public boolean endsWith(Path other) {
-		return startsWith(this.descendingIterator(),
-				((HadoopFileSystemPath) other).descendingIterator());
+		if (!(other instanceof HadoopFileSystemPath))
+			return false;
+		HadoopFileSystemPath o = (HadoopFileSystemPath) other;
+		if (!fileSystem.equals(o.fileSystem))
+			return false;
+		if (o.rooted)
+			return rooted && Arrays.equals(names, o.names);
+		if (o.names.length == 0)
+			return names.length == 0;
+		int offset = names.length - o.names.length;
+		if (offset < 0)
+			return false;
+		for (int i = 0; i < o.names.length; i++) {
+			if (!names[offset + i].equals(o.names[i]))
+				return false;
+		}
+		return true;
 	}
 
 	@Override
@@ -164,12 +342,26 @@ class HadoopFileSystemPath implements Path {
 
 	@Override
 	public Path normalize() {
-		return new HadoopFileSystemPath(fileSystem, base.normalize());
+		String[] normalized = normalize(names);
+		return normalized == names ? this : sameRoot(normalized,
+				trailingSeparator);
 	}
 
 	@Override
 	public Path resolve(Path other) {
-		return new HadoopFileSystemPath(fileSystem, base.resolve(other.toUri()));
+		HadoopFileSystemPath o = checkPath(other);
+		if (o.scheme != null)
+			return o;
+		if (o.rooted)
+			return sameRoot(o.names, o.trailingSeparator);
+		if (o.names.length == 0)
+			return this;
+		// like URI a path without trailing separator is resolved as sibling
+		int keep = trailingSeparator ? names.length : Math.max(
+				names.length - 1, 0);
+		String[] resolved = Arrays.copyOf(names, keep + o.names.length);
+		System.arraycopy(o.names, 0, resolved, keep, o.names.length);
+		return sameRoot(normalize(resolved), o.trailingSeparator);
 	}
 
 	@Override
@@ -180,7 +372,8 @@ class HadoopFileSystemPath implements Path {
 
 	@Override
 	public Path resolveSibling(Path other) {
-		return getParent().resolve(other);
+		Path parent = getParent();
+		return parent == null ? checkPath(other) : parent.resolve(other);
 	}
 
 	@Override
@@ -192,21 +385,55 @@ class HadoopFileSystemPath implements Path {
 
 	@Override
 	public Path relativize(Path other) {
-		return new HadoopFileSystemPath(fileSystem, base.relativize(other
-				.toUri()));
+		HadoopFileSystemPath o = checkPath(other);
+		if (scheme != null && o.scheme != null
+				&& (!scheme.equalsIgnoreCase(o.scheme) || !Objects
+						.equals(authority, o.authority)))
+			return o;
+		// like URI only descendants are relativized
+		if (!o.startsWith(this))
+			return o;
+		return relative(Arrays.copyOfRange(o.names, names.length,
+				o.names.length), o.trailingSeparator);
 	}
 
 	@Override
 	public URI toUri() {
-		return base;
+		URI u = uri;
+		if (u == null) {
+			StringBuilder path = new StringBuilder();
+			if (rooted)
+				path.append('/');
+			for (int i = 0; i < names.length; i++) {
+				if (i > 0)
+					path.append('/');
+				path.append(names[i]);
+			}
+			if (trailingSeparator)
+				path.append('/');
+			try {
+				u = new URI(scheme, authority, path.toString(), null, null);
+			} catch (URISyntaxException e) {
+				throw new IllegalArgumentException(e);
+			}
+			uri = u;
+		}
+		return u;
 	}
 
 	@Override
 	public Path toAbsolutePath() {
 		if (isAbsolute())
 			return this;
-		return new HadoopFileSystemPath(fileSystem, fileSystem.getFileContext()
-				.getDefaultFileSystem().getUri().resolve(base));
+		HadoopFileSystemPath p = absolutePath;
+		if (p == null) {
+			URI defaultUri = getDefaultUri();
+			p = new HadoopFileSystemPath(fileSystem, defaultUri.getScheme(),
+					defaultUri.getAuthority(), true, normalize(names),
+					trailingSeparator);
+			absolutePath = p;
+		}
+		return p;
 	}
 
 	@Override
@@ -233,44 +460,53 @@ class HadoopFileSystemPath implements Path {
 
 	@Override
 	public Iterator<Path> iterator() {
-		return getPathSegments().iterator();
-	}
+		return new Iterator<Path>() {
 
-	Iterator<Path> descendingIterator() {
-		return getPathSegments().descendingIterator();
-	}
+			private int index;
 
-	Deque<Path> getPathSegments() {
-		Deque<Path> paths = new ArrayDeque<>();
-		Path root = getRoot();
-		Path p = this;
-		while (p != null && !p.equals(root)) {
-			paths.push(p.getFileName());
-			p = p.getParent();
-		}
-		return paths;
+			@Override
+			public boolean hasNext() {
+				return index < names.length;
+			}
+
+			@Override
+			public Path next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return getName(index++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
 
 	@Override
 	public int compareTo(Path other) {
 		if (!fileSystem.equals(other.getFileSystem()))
 			throw new IllegalArgumentException();
-		return base.compareTo(((HadoopFileSystemPath) other).base);
+		return toUri().compareTo(other.toUri());
 	}
 
 	@Override
 	public String toString() {
-		return base.toString();
+		return toUri().toString();
 	}
 
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((base == null) ? 0 : base.hashCode());
-		result = prime * result
-				+ ((fileSystem == null) ? 0 : fileSystem.hashCode());
-		return result;
+		int h = hash;
+		if (h == 0) {
+			final int prime = 31;
+			h = 1;
+			h = prime * h + Arrays.hashCode(getAbsoluteNames());
+			h = prime * h + (trailingSeparator ? 1231 : 1237);
+			h = prime * h + fileSystem.hashCode();
+			hash = h;
+		}
+		return h;
 	}
 
 	@Override
@@ -282,12 +518,23 @@ class HadoopFileSystemPath implements Path {
 		if (getClass() != obj.getClass())
 			return false;
 		HadoopFileSystemPath other = (HadoopFileSystemPath) obj;
-		if (fileSystem == null) {
-			if (other.fileSystem != null)
-				return false;
-		} else if (!fileSystem.equals(other.fileSystem))
+		if (!fileSystem.equals(other.fileSystem)
+				|| trailingSeparator != other.trailingSeparator
+				|| hash != 0 && other.hash != 0 && hash != other.hash)
 			return false;
-		return toAbsolutePath().toUri().equals(other.toAbsolutePath().toUri());
+		if (!Arrays.equals(getAbsoluteNames(), other.getAbsoluteNames()))
+			return false;
+		if (scheme == null && other.scheme == null)
+			return true;
+		URI defaultUri = scheme == null || other.scheme == null ? getDefaultUri()
+				: null;
+		String s1 = scheme == null ? defaultUri.getScheme() : scheme;
+		String s2 = other.scheme == null ? defaultUri.getScheme()
+				: other.scheme;
+		String a1 = scheme == null ? defaultUri.getAuthority() : authority;
+		String a2 = other.scheme == null ? defaultUri.getAuthority()
+				: other.authority;
+		return s1.equalsIgnoreCase(s2) && Objects.equals(a1, a2);
 	}
 
 }
@@ -18,10 +18,14 @@
  *******************************************************************************/
 package de.tiqsolutions.hdfs;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.AccessDeniedException;
 import java.nio.file.AccessMode;
@@ -52,22 +56,27 @@ import java.nio.file.attribute.PosixFileAttributeView;
 import java.nio.file.attribute.PosixFileAttributes;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.nio.file.spi.FileSystemProvider;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-
-import javax.xml.bind.annotation.adapters.HexBinaryAdapter;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.lang.NullArgumentException;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Options.Rename;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.ipc.RemoteException;
@@ -75,10 +84,52 @@ import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.tools.DistCp;
 import org.apache.hadoop.tools.DistCpOptions;
 
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+
 public class HadoopFileSystemProvider extends FileSystemProvider {
 
-	private final Map<String, HadoopFileSystem> fileSystems = Collections
-			.synchronizedMap(new HashMap<String, HadoopFileSystem>(5));
+	/**
+	 * identifies a file system of this provider by the authority of its URI
+	 */
+	private static final class FileSystemKey {
+		private final String userInfo;
+		private final String host;
+		private final int port;
+
+		FileSystemKey(URI uri) {
+			this.userInfo = uri.getUserInfo();
+			this.host = uri.getHost() == null ? null : uri.getHost()
+					.toLowerCase(Locale.ROOT);
+			this.port = uri.getPort();
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + ((host == null) ? 0 : host.hashCode());
+			result = prime * result + port;
+			result = prime * result
+					+ ((userInfo == null) ? 0 : userInfo.hashCode());
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null || getClass() != obj.getClass())
+				return false;
+			FileSystemKey other = (FileSystemKey) obj;
+			return port == other.port && Objects.equals(host, other.host)
+					&& Objects.equals(userInfo, other.userInfo);
+		}
+	}
+
+	private final ConcurrentMap<FileSystemKey, HadoopFileSystem> fileSystems = new ConcurrentHashMap<>(
+			5);
+	private volatile HadoopBufferPool bufferPool;
 
 	@Override
 	public String getScheme() {
@@ -94,39 +145,44 @@ public class HadoopFileSystemProvider extends FileSystemProvider {
 					"Scheme %s not supported", uri.getScheme()));
 	}
 
-	private String getURIKey(URI uri) {
-		String s = String.format("%s://%s@%s:%d", getScheme(),
-				uri.getUserInfo() == null ? "" : uri.getUserInfo(),
-				uri.getHost(), uri.getPort());
-		try {
-			MessageDigest cript = MessageDigest.getInstance("SHA-1");
-			cript.reset();
-			cript.update(s.getBytes("utf8"));
-			return new HexBinaryAdapter().marshal(cript.digest());
-		} catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
-		}
-		return null;
-
-	}
-
 	void unregister(HadoopFileSystem fileSystem) {
-		for (Map.Entry<String, HadoopFileSystem> fs : fileSystems.entrySet()) {
-			if (fileSystem.equals(fs.getValue())) {
-				fileSystems.remove(fs.getKey());
-			}
-		}
-
+		// removes the entry of this instance only, a file system created
+		// for the same URI after it was closed stays registered
+		fileSystems.values().remove(fileSystem);
 	}
 
 	protected Configuration getConfiguration() {
 		return new Configuration();
 	}
 
+	/**
+	 * @return the buffer pool shared by all file systems of this provider
+	 */
+	public HadoopBufferPool getBufferPool() {
+		HadoopBufferPool pool = bufferPool;
+		if (pool == null) {
+			synchronized (this) {
+				pool = bufferPool;
+				if (pool == null) {
+					Configuration configuration = getConfiguration();
+					pool = new HadoopBufferPool(configuration.getInt(
+							DFSConfigKeys.DFS_STREAM_BUFFER_SIZE_KEY,
+							DFSConfigKeys.DFS_STREAM_BUFFER_SIZE_DEFAULT),
+							configuration.getLong(
+									HadoopConfigKeys.BUFFER_POOL_MAX_BYTES_KEY,
+									HadoopConfigKeys.BUFFER_POOL_MAX_BYTES_DEFAULT));
+					bufferPool = pool;
+				}
+			}
+		}
+		return pool;
+	}
+
 	@Override
 	public FileSystem newFileSystem(URI uri, Map<String, ?> env)
 			throws IOException {
 		checkURI(uri);
-		String key = getURIKey(uri);
+		FileSystemKey key = new FileSystemKey(uri);
 		if (fileSystems.containsKey(key))
 			throw new FileSystemAlreadyExistsException();
 		Configuration configuration = getConfiguration();
@@ -139,15 +195,18 @@ public class HadoopFileSystemProvider extends FileSystemProvider {
 			configuration.set(entry.getKey(), entry.getValue().toString());
 		fs = new HadoopFileSystem(this, uri, configuration);
 
-		fileSystems.put(key, fs);
+		if (fileSystems.putIfAbsent(key, fs) != null) {
+			// lost the race against a concurrent newFileSystem
+			fs.close();
+			throw new FileSystemAlreadyExistsException();
+		}
 		return fs;
 	}
 
 	@Override
 	public FileSystem getFileSystem(URI uri) {
 		checkURI(uri);
-		String key = getURIKey(uri);
-		FileSystem fs = fileSystems.get(key);
+		FileSystem fs = fileSystems.get(new FileSystemKey(uri));
 		if (fs == null)
 			throw new FileSystemNotFoundException();
 		return fs;
@@ -174,6 +233,66 @@ public class HadoopFileSystemProvider extends FileSystemProvider {
 		}
 	}
 
+	@Override
+	public InputStream newInputStream(Path path, OpenOption... options)
+			throws IOException {
+		FileSystem fs = path.getFileSystem();
+		if (!HadoopFileSystem.class.isInstance(fs))
+			throw new IllegalArgumentException("path");
+		try {
+			return ((HadoopFileSystem) fs).newInputStream(path, options);
+		} catch (RemoteException e) {
+			rethrowRemoteException(e, path);
+			return null;
+		}
+	}
+
+	@Override
+	public OutputStream newOutputStream(Path path, OpenOption... options)
+			throws IOException {
+		FileSystem fs = path.getFileSystem();
+		if (!HadoopFileSystem.class.isInstance(fs))
+			throw new IllegalArgumentException("path");
+		try {
+			return ((HadoopFileSystem) fs).newOutputStream(path, options);
+		} catch (RemoteException e) {
+			rethrowRemoteException(e, path);
+			return null;
+		}
+	}
+
+	/**
+	 * Reads a whole file like {@link Files#readAllBytes(Path)}, but opens it
+	 * once and allocates the array once from the length of the open stream.
+	 */
+	public byte[] readAllBytes(Path path) throws IOException {
+		FileSystem fs = path.getFileSystem();
+		if (!HadoopFileSystem.class.isInstance(fs))
+			throw new IllegalArgumentException("path");
+		try {
+			return ((HadoopFileSystem) fs)
+					.readAllBytes((HadoopFileSystemPath) path);
+		} catch (RemoteException e) {
+			rethrowRemoteException(e, path);
+			return null;
+		}
+	}
+
+	@Override
+	public FileChannel newFileChannel(Path path,
+			Set<? extends OpenOption> options, FileAttribute<?>... attrs)
+			throws IOException {
+		FileSystem fs = path.getFileSystem();
+		if (!HadoopFileSystem.class.isInstance(fs))
+			throw new IllegalArgumentException("path");
+		try {
+			return ((HadoopFileSystem) fs).newFileChannel(path, options, attrs);
+		} catch (RemoteException e) {
+			rethrowRemoteException(e, path);
+			return null;
+		}
+	}
+
 	@Override
 	public DirectoryStream<Path> newDirectoryStream(Path dir,
 			Filter<? super Path> filter) throws IOException {
@@ -264,15 +383,28 @@ public class HadoopFileSystemProvider extends FileSystemProvider {
 		delete(path, false);
 	}
 
+	/**
+	 * Copies a tree in process unless it exceeds the configured file count
+	 * or size, then a DistCp job is started.
+	 */
 	private void remoteCopy(Path source, Path target, CopyOption... options)
 			throws IOException {
-		Configuration configuration = getConfiguration();
-		Path tmp = target.getParent();
-		Path dest = null;
-		do {
-			dest = tmp.resolve(String.format("tmp%s/",
-					System.currentTimeMillis()));
-		} while (Files.exists(dest));
+		HadoopFileSystem fs = (HadoopFileSystem) source.getFileSystem();
+		HadoopFileSystemSettings settings = fs.getSettings();
+		ContentSummary summary = fs.getFileContext().util()
+				.getContentSummary(((HadoopFileSystemPath) source).getPath());
+		if (summary.getFileCount() <= settings.getTreeCopyDistCpFiles()
+				&& summary.getLength() <= settings.getTreeCopyDistCpBytes()) {
+			new HadoopTreeCopier(fs, Arrays.asList(options).contains(
+					StandardCopyOption.COPY_ATTRIBUTES),
+					settings.getTreeCopyThreads()).copy(
+					(HadoopFileSystemPath) source,
+					(HadoopFileSystemPath) target);
+			return;
+		}
+		Configuration configuration = fs.getConfiguration();
+		Path dest = target.getParent().resolve(
+				String.format("tmp%s/", UUID.randomUUID()));
 		try {
 			DistCpOptions distCpOptions = new DistCpOptions(
 					Arrays.asList(((HadoopFileSystemPath) source).getPath()),
@@ -295,10 +427,136 @@ public class HadoopFileSystemProvider extends FileSystemProvider {
 
 	}
 
+	private static boolean isParallelCopy(HadoopFileSystem fs, long size) {
+		HadoopFileSystemSettings settings = fs.getSettings();
+		return settings.getParallelCopyThreads() > 1
+				&& size >= settings.getParallelCopyThreshold();
+	}
+
+	/**
+	 * Copies block aligned ranges of the source into the parts of a
+	 * {@link HadoopParallelWriter}, one thread per part. Every thread reads
+	 * its range through a channel of its own positioned at the range start,
+	 * positional reads on a shared stream would reopen web based streams for
+	 * every buffer. Once a part fails the others stop at their next buffer,
+	 * and all of them have stopped before the writer deletes the parts.
+	 */
+	private void parallelCopy(final Path source,
+			final HadoopFileSystem targetFS,
+			Path target, final long size, FileAttribute<?>... attributes)
+			throws IOException {
+		int threads = targetFS.getSettings().getParallelCopyThreads();
+		long blockSize = targetFS.getBlockSize(attributes);
+		long blocks = (size + blockSize - 1) / blockSize;
+		final long partSize = Math.max((blocks + threads - 1) / threads, 1)
+				* blockSize;
+		int parts = (int) Math.max((size + partSize - 1) / partSize, 1);
+
+		try (final HadoopParallelWriter writer = targetFS.newParallelWriter(
+				target, parts, attributes)) {
+			final AtomicBoolean stopped = new AtomicBoolean();
+			List<Future<Void>> futures = new ArrayList<>();
+			for (int i = 0; i < parts; i++) {
+				final int part = i;
+				futures.add(targetFS.getExecutor().submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						long position = part * partSize;
+						long end = Math.min(position + partSize, size);
+						SeekableByteChannel channel = writer.getPart(part);
+						ByteBuffer buffer = targetFS.getBufferPool().getBuffer();
+						try (SeekableByteChannel sourceChannel = source
+								.getFileSystem()
+								.provider()
+								.newByteChannel(source,
+										EnumSet.of(StandardOpenOption.READ))) {
+							sourceChannel.position(position);
+							while (position < end && !stopped.get()) {
+								buffer.clear();
+								buffer.limit((int) Math.min(buffer.capacity(),
+										end - position));
+								int read = sourceChannel.read(buffer);
+								if (read < 0)
+									throw new EOFException(source.toString());
+								buffer.flip();
+								while (buffer.hasRemaining())
+									channel.write(buffer);
+								position += read;
+							}
+						} finally {
+							targetFS.getBufferPool().putBuffer(buffer);
+						}
+						return null;
+					}
+				}));
+			}
+			try {
+				for (Future<Void> future : futures)
+					future.get();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException(e.getLocalizedMessage());
+			} catch (ExecutionException e) {
+				Throwables.propagateIfPossible(e.getCause(), IOException.class);
+				throw new IOException(e.getCause());
+			} finally {
+				stopped.set(true);
+				for (Future<Void> future : futures)
+					try {
+						Uninterruptibles.getUninterruptibly(future);
+					} catch (ExecutionException e) {
+						// only the first failure is reported
+					}
+			}
+			writer.commit();
+		}
+	}
+
+	private static boolean isUnchanged(Path source, Path target)
+			throws IOException {
+		if (!HadoopFileSystem.class.isInstance(source.getFileSystem())
+				|| !HadoopFileSystem.class.isInstance(target.getFileSystem()))
+			return false;
+		HadoopFileSystem sourceFS = (HadoopFileSystem) source.getFileSystem();
+		FileStatus status = sourceFS.getFileStatus(((HadoopFileSystemPath) source)
+				.getPath());
+		if (status.isDirectory())
+			return false;
+		return HadoopTreeCopier.isUnchanged(sourceFS.getFileContext(), status,
+				((HadoopFileSystem) target.getFileSystem()).getFileContext(),
+				((HadoopFileSystemPath) target).getPath());
+	}
+
+	/**
+	 * Makes the target tree a copy of the source tree. Missing files and
+	 * files which differ in length or checksum are copied, files only found
+	 * in the target are kept. Source and target may be on different hadoop
+	 * file systems.
+	 * 
+	 * @param options
+	 *            {@link StandardCopyOption#COPY_ATTRIBUTES} is supported
+	 */
+	public void sync(Path source, Path target, CopyOption... options)
+			throws IOException {
+		if (!HadoopFileSystem.class.isInstance(source.getFileSystem()))
+			throw new IllegalArgumentException("source");
+		if (!HadoopFileSystem.class.isInstance(target.getFileSystem()))
+			throw new IllegalArgumentException("target");
+		HadoopFileSystem targetFS = (HadoopFileSystem) target.getFileSystem();
+		new HadoopTreeCopier((HadoopFileSystem) source.getFileSystem(),
+				targetFS, Arrays.asList(options).contains(
+						StandardCopyOption.COPY_ATTRIBUTES), true, targetFS
+						.getSettings().getTreeCopyThreads())
+				.copy((HadoopFileSystemPath) source,
+						(HadoopFileSystemPath) target);
+	}
+
 	@Override
 	public void copy(Path source, Path target, CopyOption... options)
 			throws IOException {
 		List<CopyOption> optionList = Arrays.asList(options);
+		if (optionList.contains(HadoopCopyOption.SKIP_UNCHANGED)
+				&& isUnchanged(source, target))
+			return;
 		if (!optionList.contains(StandardCopyOption.REPLACE_EXISTING)) {
 			if (Files.exists(target))
 				throw new java.nio.file.FileAlreadyExistsException(
@@ -381,19 +639,33 @@ public class HadoopFileSystemProvider extends FileSystemProvider {
 			FileAttribute<?>[] attributes = fileAttributes
 					.toArray(new FileAttribute<?>[fileAttributes.size()]);
 
-			try (SeekableByteChannel targetChannel = targetFS.provider()
-					.newByteChannel(target, openOptions, attributes)) {
-				int buffSize = getConfiguration().getInt(
-						DFSConfigKeys.DFS_STREAM_BUFFER_SIZE_KEY,
-						DFSConfigKeys.DFS_STREAM_BUFFER_SIZE_DEFAULT);
-				ByteBuffer buffer = ByteBuffer.allocate(buffSize);
-				buffer.clear();
-				while (sourceChannel.read(buffer) > 0) {
-					buffer.flip();
-					targetChannel.write(buffer);
-					buffer.clear();
-				}
+			long size = sourceChannel.size();
+			if (HadoopFileSystem.class.isInstance(targetFS)
+					&& isParallelCopy((HadoopFileSystem) targetFS, size)) {
+				parallelCopy(source, (HadoopFileSystem) targetFS, target, size,
+						attributes);
+			} else {
+				try (SeekableByteChannel targetChannel = targetFS.provider()
+						.newByteChannel(target, openOptions, attributes)) {
+					// the provider pool only serves copies between foreign
+					// file systems
+					HadoopBufferPool pool = getBufferPool();
+					if (HadoopFileSystem.class.isInstance(sourceFS))
+						pool = ((HadoopFileSystem) sourceFS).getBufferPool();
+					else if (HadoopFileSystem.class.isInstance(targetFS))
+						pool = ((HadoopFileSystem) targetFS).getBufferPool();
+					ByteBuffer buffer = pool.getBuffer();
+					try {
+						while (sourceChannel.read(buffer) > 0) {
+							buffer.flip();
+							targetChannel.write(buffer);
+							buffer.clear();
+						}
+					} finally {
+						pool.putBuffer(buffer);
+					}
 
+				}
 			}
 			if (optionList.contains(StandardCopyOption.COPY_ATTRIBUTES)) {
 				BasicFileAttributes attrs = sourceFS.provider().readAttributes(
@@ -431,6 +703,11 @@ public class HadoopFileSystemProvider extends FileSystemProvider {
 		} catch (RemoteException e) {
 			rethrowRemoteException(e, source, target);
 
+		} finally {
+			((HadoopFileSystem) fs).invalidateTree(((HadoopFileSystemPath) source)
+					.getPath());
+			((HadoopFileSystem) fs).invalidate(((HadoopFileSystemPath) target)
+					.getPath());
 		}
 	}
 
@@ -515,31 +792,44 @@ public class HadoopFileSystemProvider extends FileSystemProvider {
 			LinkOption... options) throws IOException {
 		if (attributes == null)
 			throw new NullArgumentException("attributes");
-		String[] args = attributes.split(":", 2);
-
-		if (args.length == 2) {
-			switch (args[0]) {
-			case BasicFileAttributeViewImpl.NAME:
-				return ((BasicFileAttributeViewImpl) getFileAttributeView(path,
-						BasicFileAttributeView.class, options))
-						.readAttributes(args[1]);
-			case PosixFileAttributeViewImpl.NAME:
-				return ((PosixFileAttributeViewImpl) getFileAttributeView(path,
-						PosixFileAttributeView.class, options))
-						.readAttributes(args[1]);
-			case HadoopFileAttributeViewImpl.NAME:
-				return ((HadoopFileAttributeViewImpl) getFileAttributeView(
-						path, HadoopFileAttributeView.class, options))
-						.readAttributes(args[1]);
-			default:
-				throw new UnsupportedOperationException(String.format(
-						"attributeview %s not supported", args[0]));
+		// several views may be separated by ";", all of them are answered
+		// from one file status
+		HadoopFileAttributeViewImpl hadoopView = (HadoopFileAttributeViewImpl) getFileAttributeView(
+				path, HadoopFileAttributeView.class, options);
+		HadoopFileAttributes attr = null;
+		Map<String, Object> ret = new HashMap<>();
+		for (String viewAttributes : attributes.split(";")) {
+			String[] args = viewAttributes.split(":", 2);
+			BasicFileAttributeViewImpl view;
+			String names = viewAttributes;
+			if (args.length == 2) {
+				names = args[1];
+				switch (args[0]) {
+				case BasicFileAttributeViewImpl.NAME:
+					view = (BasicFileAttributeViewImpl) getFileAttributeView(
+							path, BasicFileAttributeView.class, options);
+					break;
+				case PosixFileAttributeViewImpl.NAME:
+					view = (PosixFileAttributeViewImpl) getFileAttributeView(
+							path, PosixFileAttributeView.class, options);
+					break;
+				case HadoopFileAttributeViewImpl.NAME:
+					view = hadoopView;
+					break;
+				default:
+					throw new UnsupportedOperationException(String.format(
+							"attributeview %s not supported", args[0]));
+				}
+			} else {
+				// default to basic
+				view = (BasicFileAttributeViewImpl) getFileAttributeView(path,
+						BasicFileAttributeView.class, options);
 			}
+			if (attr == null)
+				attr = hadoopView.readAttributes();
+			view.readAttributes(attr, names, ret);
 		}
-		// default to basic
-		return ((BasicFileAttributeViewImpl) getFileAttributeView(path,
-				BasicFileAttributeView.class, options))
-				.readAttributes(attributes);
+		return ret;
 	}
 
 	@Override
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package de.tiqsolutions.hdfs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+
+/**
+ * Settings of a {@link HadoopFileSystem}, resolved once from its configuration
+ * when the file system is created. Channels and copies read these fields
+ * instead of looking the keys up in a {@link Configuration} per operation.
+ */
+final class HadoopFileSystemSettings {
+
+	private final int streamBufferSize;
+	private final long blockSize;
+	private final short replication;
+	private final int maxReplication;
+	private final int listLimit;
+	private final int writeBehindBufferSize;
+	private final int writeBehindBuffers;
+	private final long parallelCopyThreshold;
+	private final int parallelCopyThreads;
+	private final int treeCopyThreads;
+	private final long treeCopyDistCpFiles;
+	private final long treeCopyDistCpBytes;
+	private final long statusCacheTtl;
+	private final long statusCacheMaxEntries;
+	private final long listingStatusMaxAge;
+	private final int walkerThreads;
+	private final int walkerQueueSize;
+	private final int listingPrefetchBatches;
+	private final int readaheadAdaptiveBytes;
+	private final long hedgedReadThreshold;
+	private final long bufferPoolMaxBytes;
+
+	HadoopFileSystemSettings(Configuration configuration) {
+		streamBufferSize = configuration.getInt(
+				DFSConfigKeys.DFS_STREAM_BUFFER_SIZE_KEY,
+				DFSConfigKeys.DFS_STREAM_BUFFER_SIZE_DEFAULT);
+		blockSize = configuration.getLongBytes(
+				DFSConfigKeys.DFS_BLOCK_SIZE_KEY,
+				DFSConfigKeys.DFS_BLOCK_SIZE_DEFAULT);
+		replication = (short) configuration.getInt(
+				DFSConfigKeys.DFS_REPLICATION_KEY,
+				DFSConfigKeys.DFS_REPLICATION_DEFAULT);
+		maxReplication = configuration.getInt(
+				DFSConfigKeys.DFS_REPLICATION_MAX_KEY,
+				DFSConfigKeys.DFS_REPLICATION_MAX_DEFAULT);
+		listLimit = configuration.getInt(DFSConfigKeys.DFS_LIST_LIMIT,
+				DFSConfigKeys.DFS_LIST_LIMIT_DEFAULT);
+		writeBehindBufferSize = configuration.getInt(
+				HadoopConfigKeys.WRITE_BEHIND_BUFFER_SIZE_KEY,
+				HadoopConfigKeys.WRITE_BEHIND_BUFFER_SIZE_DEFAULT);
+		writeBehindBuffers = configuration.getInt(
+				HadoopConfigKeys.WRITE_BEHIND_BUFFERS_KEY,
+				HadoopConfigKeys.WRITE_BEHIND_BUFFERS_DEFAULT);
+		parallelCopyThreshold = configuration.getLong(
+				HadoopConfigKeys.PARALLEL_COPY_THRESHOLD_KEY,
+				HadoopConfigKeys.PARALLEL_COPY_THRESHOLD_DEFAULT);
+		parallelCopyThreads = configuration.getInt(
+				HadoopConfigKeys.PARALLEL_COPY_THREADS_KEY,
+				HadoopConfigKeys.PARALLEL_COPY_THREADS_DEFAULT);
+		treeCopyThreads = configuration.getInt(
+				HadoopConfigKeys.TREE_COPY_THREADS_KEY,
+				HadoopConfigKeys.TREE_COPY_THREADS_DEFAULT);
+		treeCopyDistCpFiles = configuration.getLong(
+				HadoopConfigKeys.TREE_COPY_DISTCP_FILES_KEY,
+				HadoopConfigKeys.TREE_COPY_DISTCP_FILES_DEFAULT);
+		treeCopyDistCpBytes = configuration.getLong(
+				HadoopConfigKeys.TREE_COPY_DISTCP_BYTES_KEY,
+				HadoopConfigKeys.TREE_COPY_DISTCP_BYTES_DEFAULT);
+		statusCacheTtl = configuration.getLong(
+				HadoopConfigKeys.STATUS_CACHE_TTL_KEY,
+				HadoopConfigKeys.STATUS_CACHE_TTL_DEFAULT);
+		statusCacheMaxEntries = configuration.getLong(
+				HadoopConfigKeys.STATUS_CACHE_MAX_ENTRIES_KEY,
+				HadoopConfigKeys.STATUS_CACHE_MAX_ENTRIES_DEFAULT);
+		listingStatusMaxAge = configuration.getLong(
+				HadoopConfigKeys.LISTING_STATUS_MAX_AGE_KEY,
+				HadoopConfigKeys.LISTING_STATUS_MAX_AGE_DEFAULT);
+		walkerThreads = configuration.getInt(
+				HadoopConfigKeys.WALKER_THREADS_KEY,
+				HadoopConfigKeys.WALKER_THREADS_DEFAULT);
+		walkerQueueSize = configuration.getInt(
+				HadoopConfigKeys.WALKER_QUEUE_SIZE_KEY,
+				HadoopConfigKeys.WALKER_QUEUE_SIZE_DEFAULT);
+		listingPrefetchBatches = configuration.getInt(
+				HadoopConfigKeys.LISTING_PREFETCH_BATCHES_KEY,
+				HadoopConfigKeys.LISTING_PREFETCH_BATCHES_DEFAULT);
+		readaheadAdaptiveBytes = configuration.getInt(
+				HadoopConfigKeys.READAHEAD_ADAPTIVE_BYTES_KEY,
+				HadoopConfigKeys.READAHEAD_ADAPTIVE_BYTES_DEFAULT);
+		hedgedReadThreshold = configuration.getLong(
+				HadoopConfigKeys.HEDGED_READ_THRESHOLD_KEY,
+				HadoopConfigKeys.HEDGED_READ_THRESHOLD_DEFAULT);
+		bufferPoolMaxBytes = configuration.getLong(
+				HadoopConfigKeys.BUFFER_POOL_MAX_BYTES_KEY,
+				HadoopConfigKeys.BUFFER_POOL_MAX_BYTES_DEFAULT);
+	}
+
+	int getStreamBufferSize() {
+		return streamBufferSize;
+	}
+
+	long getBlockSize() {
+		return blockSize;
+	}
+
+	short getReplication() {
+		return replication;
+	}
+
+	int getMaxReplication() {
+		return maxReplication;
+	}
+
+	int getListLimit() {
+		return listLimit;
+	}
+
+	int getWriteBehindBufferSize() {
+		return writeBehindBufferSize;
+	}
+
+	int getWriteBehindBuffers() {
+		return writeBehindBuffers;
+	}
+
+	long getParallelCopyThreshold() {
+		return parallelCopyThreshold;
+	}
+
+	int getParallelCopyThreads() {
+		return parallelCopyThreads;
+	}
+
+	int getTreeCopyThreads() {
+		return treeCopyThreads;
+	}
+
+	long getTreeCopyDistCpFiles() {
+		return treeCopyDistCpFiles;
+	}
+
+	long getTreeCopyDistCpBytes() {
+		return treeCopyDistCpBytes;
+	}
+
+	long getStatusCacheTtl() {
+		return statusCacheTtl;
+	}
+
+	long getStatusCacheMaxEntries() {
+		return statusCacheMaxEntries;
+	}
+
+	long getListingStatusMaxAge() {
+		return listingStatusMaxAge;
+	}
+
+	int getWalkerThreads() {
+		return walkerThreads;
+	}
+
+	int getWalkerQueueSize() {
+		return walkerQueueSize;
+	}
+
+	int getListingPrefetchBatches() {
+		return listingPrefetchBatches;
+	}
+
+	int getReadaheadAdaptiveBytes() {
+		return readaheadAdaptiveBytes;
+	}
+
+	long getHedgedReadThreshold() {
+		return hedgedReadThreshold;
+	}
+
+	long getBufferPoolMaxBytes() {
+		return bufferPoolMaxBytes;
+	}
+
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package de.tiqsolutions.hdfs;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a {@link HadoopFileSystem}.
+ */
+public class HadoopFileSystemStatistics {
+
+	private final AtomicLong fileStatusRequests = new AtomicLong();
+	private final AtomicLong fileStatusCacheHits = new AtomicLong();
+	private final AtomicLong listingStatusHits = new AtomicLong();
+	private final AtomicLong readaheadPrefetches = new AtomicLong();
+	private final AtomicLong hedgedReads = new AtomicLong();
+	private final AtomicLong hedgedReadWins = new AtomicLong();
+
+	/**
+	 * @return number of file status requests sent to the file system
+	 */
+	public long getFileStatusRequests() {
+		return fileStatusRequests.get();
+	}
+
+	void incrementFileStatusRequests() {
+		fileStatusRequests.incrementAndGet();
+	}
+
+	/**
+	 * @return number of file status served from the file status cache
+	 */
+	public long getFileStatusCacheHits() {
+		return fileStatusCacheHits.get();
+	}
+
+	void incrementFileStatusCacheHits() {
+		fileStatusCacheHits.incrementAndGet();
+	}
+
+	/**
+	 * @return number of file status answered by the status of a directory
+	 *         listing
+	 */
+	public long getListingStatusHits() {
+		return listingStatusHits.get();
+	}
+
+	void incrementListingStatusHits() {
+		listingStatusHits.incrementAndGet();
+	}
+
+	/**
+	 * @return number of block starts fetched ahead by adaptive readahead
+	 */
+	public long getReadaheadPrefetches() {
+		return readaheadPrefetches.get();
+	}
+
+	void incrementReadaheadPrefetches() {
+		readaheadPrefetches.incrementAndGet();
+	}
+
+	/**
+	 * @return number of positional reads which issued a hedged read
+	 */
+	public long getHedgedReads() {
+		return hedgedReads.get();
+	}
+
+	void incrementHedgedReads() {
+		hedgedReads.incrementAndGet();
+	}
+
+	/**
+	 * @return number of hedged reads which completed before the read they
+	 *         hedged
+	 */
+	public long getHedgedReadWins() {
+		return hedgedReadWins.get();
+	}
+
+	void incrementHedgedReadWins() {
+		hedgedReadWins.incrementAndGet();
+	}
+
+}
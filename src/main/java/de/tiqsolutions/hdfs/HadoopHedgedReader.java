@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package de.tiqsolutions.hdfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.client.HdfsDataInputStream;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Positional reads of a hdfs stream which are hedged by a second read if the
+ * first one has not completed within the threshold. Hedges go through a
+ * second stream of the file, opened by the first hedge and kept. The client
+ * picks the replica of each stream as for any read, the namenode orders the
+ * replicas of the second open independently of the first, so a hedge often
+ * but not always reads another replica. The first read to complete wins.
+ * <p>
+ * Reads of a block with a single replica run on the calling thread. The
+ * others run on the executor of the file system into buffers of their own,
+ * as the caller returns with the winner while the loser may still write.
+ * Buffers up to {@link HadoopBufferPool#getMaxPooledSize()} come from the
+ * pool, larger ones are allocated with the exact length. The loser is
+ * cancelled without an interrupt, which would mark its datanode dead for the
+ * stream, and its bytes are dropped.
+ */
+class HadoopHedgedReader implements Closeable {
+
+	private final class Attempt implements Callable<Integer> {
+		private final boolean hedge;
+		private final long position;
+		private final int length;
+		private final AtomicBoolean done = new AtomicBoolean();
+		private volatile ByteBuffer buffer;
+
+		Attempt(boolean hedge, long position, int length) {
+			this.hedge = hedge;
+			this.position = position;
+			this.length = length;
+		}
+
+		@Override
+		public Integer call() throws IOException {
+			buffer = length <= pool.getMaxPooledSize() ? pool.getBuffer(
+					false, length) : ByteBuffer.allocate(length);
+			try {
+				HdfsDataInputStream stream = hedge ? getHedgeStream() : in;
+				return stream.read(position, buffer.array(),
+						buffer.arrayOffset(), length);
+			} finally {
+				// the caller gave up on this attempt, so the buffer is ours
+				if (!done.compareAndSet(false, true))
+					pool.putBuffer(buffer);
+			}
+		}
+
+		/**
+		 * hands the buffer back to the pool once the attempt is no longer
+		 * running, an attempt cancelled before it started has none
+		 */
+		void abandon() {
+			if (!done.compareAndSet(false, true))
+				pool.putBuffer(buffer);
+		}
+	}
+
+	private final HadoopFileSystem fileSystem;
+	private final Path path;
+	private final HdfsDataInputStream in;
+	private final long threshold;
+	private final HadoopBufferPool pool;
+	private volatile List<LocatedBlock> blocks;
+	private HdfsDataInputStream hedgeStream;
+	private boolean closed = false;
+
+	HadoopHedgedReader(HadoopFileSystem fileSystem, Path path,
+			HdfsDataInputStream in, long threshold) {
+		this.fileSystem = fileSystem;
+		this.path = path;
+		this.in = in;
+		this.threshold = threshold;
+		this.pool = fileSystem.getBufferPool();
+	}
+
+	private static LocatedBlock getBlock(List<LocatedBlock> blocks,
+			long position) {
+		for (LocatedBlock block : blocks) {
+			if (position >= block.getStartOffset()
+					&& position < block.getStartOffset() + block.getBlockSize())
+				return block;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the block of the first read, the stream already knows it
+	 *         unless the file has grown
+	 */
+	private LocatedBlock getBlock(long position) throws IOException {
+		LocatedBlock block = blocks != null ? getBlock(blocks, position) : null;
+		if (block == null) {
+			blocks = in.getAllBlocks();
+			block = getBlock(blocks, position);
+		}
+		return block;
+	}
+
+	private synchronized HdfsDataInputStream getHedgeStream()
+			throws IOException {
+		if (closed)
+			throw new IOException("closed");
+		if (hedgeStream == null)
+			hedgeStream = (HdfsDataInputStream) fileSystem.getFileContext()
+					.open(path);
+		return hedgeStream;
+	}
+
+	int read(long position, byte[] b, int off, int len) throws IOException {
+		LocatedBlock block = getBlock(position);
+		if (block == null || block.getLocations().length < 2)
+			return in.read(position, b, off, len);
+
+		HadoopFileSystemStatistics statistics = fileSystem.getStatistics();
+		CompletionService<Integer> service = new ExecutorCompletionService<>(
+				fileSystem.getExecutor());
+		List<Future<Integer>> futures = new ArrayList<>(2);
+		List<Attempt> attempts = new ArrayList<>(2);
+		Attempt hedge = null;
+		Attempt primary = new Attempt(false, position, len);
+		attempts.add(primary);
+		futures.add(service.submit(primary));
+		IOException failure = null;
+		try {
+			Future<Integer> completed = service.poll(threshold,
+					TimeUnit.MILLISECONDS);
+			if (completed == null) {
+				hedge = new Attempt(true, position, len);
+				attempts.add(hedge);
+				futures.add(service.submit(hedge));
+				statistics.incrementHedgedReads();
+			}
+			while (!futures.isEmpty()) {
+				if (completed == null)
+					completed = service.take();
+				Attempt attempt = attempts.remove(futures.indexOf(completed));
+				futures.remove(completed);
+				try {
+					int read = completed.get();
+					if (read > 0)
+						System.arraycopy(attempt.buffer.array(),
+								attempt.buffer.arrayOffset(), b, off, read);
+					if (attempt == hedge)
+						statistics.incrementHedgedReadWins();
+					return read;
+				} catch (ExecutionException e) {
+					Throwables.propagateIfPossible(e.getCause());
+					IOException cause = e.getCause() instanceof IOException ? (IOException) e
+							.getCause() : new IOException(e.getCause());
+					if (failure == null)
+						failure = cause;
+					else
+						failure.addSuppressed(cause);
+				} finally {
+					pool.putBuffer(attempt.buffer);
+				}
+				completed = null;
+			}
+			throw failure;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException(e.getLocalizedMessage());
+		} finally {
+			for (int i = 0; i < futures.size(); i++) {
+				futures.get(i).cancel(false);
+				attempts.get(i).abandon();
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		if (hedgeStream != null)
+			hedgeStream.close();
+	}
+
+}
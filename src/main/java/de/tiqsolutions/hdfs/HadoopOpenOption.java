@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package de.tiqsolutions.hdfs;
+
+import java.nio.file.OpenOption;
+
+public enum HadoopOpenOption implements OpenOption {
+	/**
+	 * read through the enhanced byte buffer access of the stream, which maps
+	 * locally stored blocks into memory for short circuit reads. The mapped
+	 * bytes are copied once into the buffer of the reader.
+	 */
+	ZERO_COPY,
+	/**
+	 * skip checksum verification on reads, implies {@link #ZERO_COPY}
+	 */
+	SKIP_CHECKSUMS,
+	/**
+	 * write asynchronously, filled buffers are written by a background thread
+	 * while the caller goes on, see
+	 * {@link HadoopConfigKeys#WRITE_BEHIND_BUFFERS_KEY}
+	 */
+	WRITE_BEHIND,
+	/**
+	 * drop the read data from the operating system cache of the datanodes,
+	 * for data read once, see {@link org.apache.hadoop.fs.CanSetDropBehind}
+	 */
+	DROP_BEHIND,
+	/**
+	 * once a channel is read sequentially, the start of the next block is
+	 * fetched by a background thread before the reader gets there, see
+	 * {@link HadoopConfigKeys#READAHEAD_ADAPTIVE_BYTES_KEY}
+	 */
+	ADAPTIVE_READAHEAD;
+}
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package de.tiqsolutions.hdfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.ipc.RemoteException;
+
+/**
+ * Writes one file through several channels, each backed by a temporary file
+ * next to the target and its own datanode pipeline. The parts may be written
+ * concurrently by different threads and are joined by
+ * {@link #commit()} with a namenode side concat, so every part but the last
+ * non empty one has to end on a block boundary, see {@link #getBlockSize()}.
+ * Closing a writer which was not committed deletes the parts.
+ */
+public class HadoopParallelWriter implements Closeable {
+
+	private final HadoopFileSystem fileSystem;
+	private final HadoopFileSystemPath target;
+	private final FileAttribute<?>[] attrs;
+	private final long blockSize;
+	private final HadoopFileSystemPath[] partPaths;
+	private final SeekableByteChannel[] parts;
+	private boolean committed = false;
+	private boolean closed = false;
+
+	HadoopParallelWriter(HadoopFileSystem fileSystem,
+			HadoopFileSystemPath target, int parts, FileAttribute<?>... attrs) {
+		if (parts <= 0)
+			throw new IllegalArgumentException("parts");
+		if (target.getFileName() == null)
+			throw new IllegalArgumentException("target");
+		this.fileSystem = fileSystem;
+		this.target = target;
+		this.attrs = attrs;
+		this.blockSize = fileSystem.getBlockSize(attrs);
+		this.partPaths = new HadoopFileSystemPath[parts];
+		this.parts = new SeekableByteChannel[parts];
+		String prefix = "." + target.getFileName() + "." + UUID.randomUUID()
+				+ ".part";
+		for (int i = 0; i < parts; i++) {
+			partPaths[i] = (HadoopFileSystemPath) target.resolveSibling(prefix
+					+ i);
+		}
+	}
+
+	/**
+	 * @return the number of parts
+	 */
+	public int getPartCount() {
+		return parts.length;
+	}
+
+	/**
+	 * @return the block size of the target, all parts but the last non empty
+	 *         one must have a multiple of it as length
+	 */
+	public long getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * @return the channel of the part with the given index, the part file is
+	 *         created on the first call
+	 */
+	public synchronized SeekableByteChannel getPart(int index)
+			throws IOException {
+		if (closed)
+			throw new IllegalStateException("closed");
+		if (parts[index] == null) {
+			parts[index] = fileSystem.newByteChannel(partPaths[index],
+					EnumSet.of(StandardOpenOption.CREATE_NEW,
+							StandardOpenOption.WRITE), attrs);
+		}
+		return parts[index];
+	}
+
+	/**
+	 * Closes all parts and joins them to the target, which must not exist.
+	 * When the commit fails neither the parts nor the target are left behind.
+	 */
+	public synchronized void commit() throws IOException {
+		if (closed)
+			throw new IllegalStateException("closed");
+		closed = true;
+		try {
+			closeParts();
+			List<org.apache.hadoop.fs.Path> sources = new ArrayList<>();
+			HadoopFileSystemPath last = null;
+			long lastLength = 0;
+			for (int i = 0; i < parts.length; i++) {
+				if (parts[i] == null)
+					continue;
+				long length = fileSystem.getFileStatus(partPaths[i].getPath())
+						.getLen();
+				// concat refuses empty sources
+				if (length == 0)
+					continue;
+				if (last != null && lastLength % blockSize != 0)
+					throw new IOException(String.format(
+							"part %s does not end on a block boundary", last));
+				sources.add(partPaths[i].getPath());
+				last = partPaths[i];
+				lastLength = length;
+			}
+			if (sources.isEmpty()) {
+				fileSystem.create(target,
+						EnumSet.of(StandardOpenOption.CREATE_NEW), attrs)
+						.close();
+			} else {
+				HadoopFileSystemPath first = (HadoopFileSystemPath) target
+						.resolveSibling(sources.get(0).getName());
+				try {
+					fileSystem.getFileContext().rename(first.getPath(),
+							target.getPath());
+				} catch (RemoteException e) {
+					HadoopFileSystemProvider.rethrowRemoteException(e, first,
+							target);
+				}
+				try {
+					concat(sources.subList(1, sources.size()));
+				} catch (IOException | RuntimeException e) {
+					fileSystem.getFileContext().delete(target.getPath(), false);
+					throw e;
+				}
+			}
+			committed = true;
+		} finally {
+			fileSystem.invalidate(target.getPath());
+			deleteParts();
+		}
+	}
+
+	private void concat(List<org.apache.hadoop.fs.Path> sources)
+			throws IOException {
+		if (sources.isEmpty())
+			return;
+		FileSystem fs = FileSystem.get(fileSystem.getFileContext()
+				.getDefaultFileSystem().getUri(), fileSystem.getConfiguration());
+		try {
+			fs.concat(target.getPath(), sources
+					.toArray(new org.apache.hadoop.fs.Path[sources.size()]));
+			return;
+		} catch (UnsupportedOperationException e) {
+			// file systems without concat get the parts appended
+		}
+		HadoopBufferPool pool = fileSystem.getBufferPool();
+		ByteBuffer buffer = pool.getBuffer();
+		try (FSDataOutputStream out = fileSystem.create(target,
+				EnumSet.of(StandardOpenOption.APPEND), attrs)) {
+			for (org.apache.hadoop.fs.Path source : sources) {
+				try (FSDataInputStream in = fileSystem.getFileContext().open(
+						source)) {
+					int read;
+					while ((read = in.read(buffer.array(), 0,
+							buffer.capacity())) > 0)
+						out.write(buffer.array(), 0, read);
+				}
+			}
+		} finally {
+			pool.putBuffer(buffer);
+		}
+	}
+
+	/**
+	 * Closes all parts and deletes them, the target is not touched.
+	 */
+	public synchronized void abort() throws IOException {
+		closed = true;
+		try {
+			closeParts();
+		} finally {
+			deleteParts();
+		}
+	}
+
+	private void closeParts() throws IOException {
+		IOException failure = null;
+		for (SeekableByteChannel part : parts) {
+			if (part == null || !part.isOpen())
+				continue;
+			try {
+				part.close();
+			} catch (IOException e) {
+				if (failure == null)
+					failure = e;
+				else
+					failure.addSuppressed(e);
+			}
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	private void deleteParts() throws IOException {
+		for (int i = 0; i < parts.length; i++) {
+			if (parts[i] == null)
+				continue;
+			// parts joined to the target are gone already
+			fileSystem.getFileContext().delete(partPaths[i].getPath(), false);
+			fileSystem.invalidate(partPaths[i].getPath());
+			parts[i] = null;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (!committed)
+			abort();
+	}
+
+}
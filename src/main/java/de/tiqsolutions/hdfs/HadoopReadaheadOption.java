@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package de.tiqsolutions.hdfs;
+
+import java.nio.file.OpenOption;
+
+/**
+ * Sets the number of bytes the hadoop stream reads ahead of the position,
+ * see {@link org.apache.hadoop.fs.CanSetReadahead}. Streams which cannot read
+ * ahead ignore it.
+ */
+public final class HadoopReadaheadOption implements OpenOption {
+
+	private final long bytes;
+
+	private HadoopReadaheadOption(long bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * @param bytes
+	 *            readahead in bytes, 0 disables readahead
+	 */
+	public static HadoopReadaheadOption of(long bytes) {
+		if (bytes < 0)
+			throw new IllegalArgumentException("bytes");
+		return new HadoopReadaheadOption(bytes);
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (bytes ^ (bytes >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		return bytes == ((HadoopReadaheadOption) obj).bytes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("READAHEAD(%d)", bytes);
+	}
+
+}
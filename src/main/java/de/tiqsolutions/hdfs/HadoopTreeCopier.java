@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package de.tiqsolutions.hdfs;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileContext;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Options.CreateOpts;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.fs.permission.FsPermission;
+
+/**
+ * Copies a file or directory tree between hadoop file systems on a work
+ * stealing pool. Directories are listed with the batched listing of the
+ * namenode and every entry is copied by a task of its own. Everything is
+ * created with default permissions, permissions and times are applied after
+ * all data is copied, as creating children modifies the times of their parent
+ * and a read only directory would not take children. In sync mode existing targets are kept and
+ * files are only rewritten when their length or checksum differ.
+ */
+class HadoopTreeCopier {
+
+	private static class CopyFailure extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		CopyFailure(IOException cause) {
+			super(cause);
+		}
+	}
+
+	private final HadoopFileSystem sourceFileSystem;
+	private final HadoopFileSystem targetFileSystem;
+	private final FileContext sourceContext;
+	private final FileContext targetContext;
+	private final boolean copyAttributes;
+	private final boolean sync;
+	private final int parallelism;
+	private final Queue<Map.Entry<FileStatus, Path>> copied = new ConcurrentLinkedQueue<>();
+	private final AtomicLong copiedFiles = new AtomicLong();
+	private final AtomicLong skippedFiles = new AtomicLong();
+
+	HadoopTreeCopier(HadoopFileSystem fileSystem, boolean copyAttributes,
+			int parallelism) {
+		this(fileSystem, fileSystem, copyAttributes, false, parallelism);
+	}
+
+	HadoopTreeCopier(HadoopFileSystem sourceFileSystem,
+			HadoopFileSystem targetFileSystem, boolean copyAttributes,
+			boolean sync, int parallelism) {
+		this.sourceFileSystem = sourceFileSystem;
+		this.targetFileSystem = targetFileSystem;
+		this.sourceContext = sourceFileSystem.getFileContext();
+		this.targetContext = targetFileSystem.getFileContext();
+		this.copyAttributes = copyAttributes;
+		this.sync = sync;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return true if the target exists with the length and checksum of the
+	 *         source, file systems without checksums never match
+	 */
+	static boolean isUnchanged(FileContext sourceContext, FileStatus source,
+			FileContext targetContext, Path target) throws IOException {
+		FileStatus status;
+		try {
+			status = targetContext.getFileStatus(target);
+		} catch (FileNotFoundException e) {
+			return false;
+		}
+		if (status.isDirectory() || status.getLen() != source.getLen())
+			return false;
+		FileChecksum checksum = sourceContext.getFileChecksum(source
+				.getPath());
+		return checksum != null
+				&& checksum.equals(targetContext.getFileChecksum(target));
+	}
+
+	private class CopyTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final FileStatus source;
+		private final Path target;
+
+		CopyTask(FileStatus source, Path target) {
+			this.source = source;
+			this.target = target;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				if (source.isDirectory()) {
+					try {
+						targetContext.mkdir(target, FsPermission.getDefault(),
+								false);
+					} catch (FileAlreadyExistsException e) {
+						// a sync merges into directories, never into files
+						if (!sync
+								|| !targetContext.getFileStatus(target)
+										.isDirectory())
+							throw e;
+					}
+					List<CopyTask> tasks = new ArrayList<>();
+					RemoteIterator<FileStatus> children = sourceContext
+							.listStatus(source.getPath());
+					while (children.hasNext()) {
+						FileStatus child = children.next();
+						tasks.add(new CopyTask(child, new Path(target, child
+								.getPath().getName())));
+					}
+					invokeAll(tasks);
+				} else if (sync
+						&& isUnchanged(sourceContext, source, targetContext,
+								target)) {
+					skippedFiles.incrementAndGet();
+				} else {
+					copyFile(source, target);
+					copiedFiles.incrementAndGet();
+				}
+			} catch (IOException e) {
+				throw new CopyFailure(e);
+			}
+			if (copyAttributes)
+				copied.add(new SimpleImmutableEntry<>(source, target));
+		}
+	}
+
+	private void copyFile(FileStatus source, Path target) throws IOException {
+		HadoopBufferPool pool = sourceFileSystem.getBufferPool();
+		ByteBuffer buffer = pool.getBuffer();
+		EnumSet<CreateFlag> flags = sync ? EnumSet.of(CreateFlag.CREATE,
+				CreateFlag.OVERWRITE) : EnumSet.of(CreateFlag.CREATE);
+		try (FSDataInputStream in = sourceContext.open(source.getPath());
+				FSDataOutputStream out = targetContext.create(target, flags,
+						CreateOpts.perms(FsPermission.getDefault()),
+						CreateOpts.blockSize(source.getBlockSize()), CreateOpts
+								.repFac(source.getReplication()))) {
+			int read;
+			while ((read = in.read(buffer.array(), 0, buffer.capacity())) > 0)
+				out.write(buffer.array(), 0, read);
+		} finally {
+			pool.putBuffer(buffer);
+		}
+	}
+
+	/**
+	 * @return number of files written
+	 */
+	long getCopiedFiles() {
+		return copiedFiles.get();
+	}
+
+	/**
+	 * @return number of files left alone in sync mode
+	 */
+	long getSkippedFiles() {
+		return skippedFiles.get();
+	}
+
+	void copy(HadoopFileSystemPath source, HadoopFileSystemPath target)
+			throws IOException {
+		FileStatus status = sourceFileSystem.getFileStatus(source.getPath());
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			try {
+				pool.invoke(new CopyTask(status, target.getPath()));
+			} catch (CopyFailure e) {
+				throw (IOException) e.getCause();
+			} finally {
+				pool.shutdown();
+			}
+			// children were completed before their parents, and times are set
+			// before the permission may take away write access
+			for (Map.Entry<FileStatus, Path> entry : copied) {
+				targetContext.setTimes(entry.getValue(), entry.getKey()
+						.getModificationTime(), entry.getKey().getAccessTime());
+				targetContext.setPermission(entry.getValue(), entry.getKey()
+						.getPermission());
+			}
+		} finally {
+			targetFileSystem.invalidateTree(target.getPath());
+		}
+	}
+
+}
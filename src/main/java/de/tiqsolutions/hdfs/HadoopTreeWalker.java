@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package de.tiqsolutions.hdfs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.RemoteIterator;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Walks a tree listing several directories at once. The entries are handed
+ * to the consumer through a bounded queue, so listing threads wait while
+ * the consumer is behind. Entries carry the status of their listing. The
+ * first failure ends the walk, it is handed over beside the queue, which
+ * may be full, and the consumer is woken by an end marker.
+ */
+class HadoopTreeWalker implements DirectoryStream<Path> {
+
+	private static final Object END = new Object();
+
+	private final HadoopFileSystem fileSystem;
+	private final int maxDepth;
+	private final Filter<? super Path> descend;
+	private final ExecutorService executor;
+	private final BlockingQueue<Object> queue;
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicReference<Exception> failure = new AtomicReference<>();
+	private final FileStatus start;
+	private volatile boolean closed = false;
+	private boolean iteratorReturned = false;
+
+	HadoopTreeWalker(HadoopFileSystem fileSystem, HadoopFileSystemPath start,
+			int maxDepth, Filter<? super Path> descend) throws IOException {
+		if (maxDepth < 0)
+			throw new IllegalArgumentException("maxDepth");
+		this.fileSystem = fileSystem;
+		this.maxDepth = maxDepth;
+		this.descend = descend;
+		this.start = fileSystem.getFileStatus(start);
+		this.queue = new ArrayBlockingQueue<>(fileSystem.getSettings()
+				.getWalkerQueueSize());
+		this.executor = Executors.newFixedThreadPool(fileSystem.getSettings()
+				.getWalkerThreads(),
+				new ThreadFactoryBuilder().setDaemon(true)
+						.setNameFormat("hdfssp-walker-%d").build());
+	}
+
+	private void offer(Object element) throws InterruptedException {
+		if (!closed && failure.get() == null)
+			queue.put(element);
+	}
+
+	private void submit(final FileStatus directory, final int depth) {
+		pending.incrementAndGet();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					list(directory, depth);
+					if (pending.decrementAndGet() == 0) {
+						offer(END);
+						executor.shutdown();
+					}
+				} catch (IOException | RuntimeException e) {
+					fail(e);
+				} catch (InterruptedException e) {
+					fail(new InterruptedIOException(e.getLocalizedMessage()));
+				}
+			}
+		});
+	}
+
+	private void fail(Exception e) {
+		if (!failure.compareAndSet(null, e))
+			return;
+		executor.shutdownNow();
+		// a listing thread not yet stopped may take the room again
+		while (!closed && !queue.offer(END))
+			queue.clear();
+	}
+
+	private void list(FileStatus directory, int depth) throws IOException,
+			InterruptedException {
+		RemoteIterator<FileStatus> children = fileSystem.getFileContext()
+				.listStatus(directory.getPath());
+		while (children.hasNext() && !closed) {
+			FileStatus child = children.next();
+			HadoopFileSystemPath path = new HadoopFileSystemPath(fileSystem,
+					child);
+			offer(path);
+			if (child.isDirectory() && depth + 1 < maxDepth
+					&& descend.accept(path))
+				submit(child, depth + 1);
+		}
+	}
+
+	@Override
+	public synchronized Iterator<Path> iterator() {
+		if (closed)
+			throw new IllegalStateException("closed");
+		if (iteratorReturned)
+			throw new IllegalStateException("iterator already returned");
+		iteratorReturned = true;
+		HadoopFileSystemPath startPath = new HadoopFileSystemPath(fileSystem,
+				start);
+		try {
+			if (start.isDirectory() && maxDepth > 0
+					&& descend.accept(startPath))
+				submit(start, 0);
+			else
+				queue.add(END);
+		} catch (IOException e) {
+			throw new DirectoryIteratorException(e);
+		}
+		final Object first = startPath;
+		return new Iterator<Path>() {
+			private Object next = first;
+
+			@Override
+			public boolean hasNext() {
+				if (next == null) {
+					if (closed)
+						return false;
+					try {
+						next = queue.take();
+					} catch (InterruptedException e) {
+						throw new DirectoryIteratorException(
+								new InterruptedIOException(e
+										.getLocalizedMessage()));
+					}
+				}
+				Exception e = failure.get();
+				if (e instanceof IOException)
+					throw new DirectoryIteratorException((IOException) e);
+				if (e instanceof RuntimeException)
+					throw (RuntimeException) e;
+				return next != END;
+			}
+
+			@Override
+			public Path next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				Path path = (Path) next;
+				next = null;
+				return path;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("remove");
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		executor.shutdownNow();
+		queue.clear();
+	}
+
+}
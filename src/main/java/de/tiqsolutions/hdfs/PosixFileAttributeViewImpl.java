@@ -20,13 +20,13 @@ package de.tiqsolutions.hdfs;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.GroupPrincipal;
 import java.nio.file.attribute.PosixFileAttributeView;
 import java.nio.file.attribute.PosixFileAttributes;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.UserPrincipal;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -54,6 +54,8 @@ class PosixFileAttributeViewImpl extends BasicFileAttributeViewImpl implements
 	public void setOwner(UserPrincipal owner) throws IOException {
 		((HadoopFileSystem) path.getFileSystem()).getFileContext().setOwner(
 				((HadoopFileSystemPath) path).getPath(), owner.getName(), null);
+		((HadoopFileSystem) path.getFileSystem())
+				.invalidate(((HadoopFileSystemPath) path).getPath());
 
 	}
 
@@ -63,6 +65,8 @@ class PosixFileAttributeViewImpl extends BasicFileAttributeViewImpl implements
 		((HadoopFileSystem) path.getFileSystem()).getFileContext()
 				.setPermission(((HadoopFileSystemPath) path).getPath(),
 						HadoopFileSystem.fromPosixPermissions(perms));
+		((HadoopFileSystem) path.getFileSystem())
+				.invalidate(((HadoopFileSystemPath) path).getPath());
 
 	}
 
@@ -70,6 +74,8 @@ class PosixFileAttributeViewImpl extends BasicFileAttributeViewImpl implements
 	public void setGroup(GroupPrincipal group) throws IOException {
 		((HadoopFileSystem) path.getFileSystem()).getFileContext().setOwner(
 				((HadoopFileSystemPath) path).getPath(), group.getName(), null);
+		((HadoopFileSystem) path.getFileSystem())
+				.invalidate(((HadoopFileSystemPath) path).getPath());
 
 	}
 
@@ -78,18 +84,19 @@ class PosixFileAttributeViewImpl extends BasicFileAttributeViewImpl implements
 		return NAME;
 	}
 
-	Map<String, Object> readAttributes(String attributes) throws IOException {
-		PosixFileAttributes attr = readAttributes();
-		List<String> attrlist = Arrays.asList(attributes.split(","));
+	@Override
+	void readAttributes(BasicFileAttributes attributes, String names,
+			Map<String, Object> ret) {
+		super.readAttributes(attributes, names, ret);
+		PosixFileAttributes attr = (PosixFileAttributes) attributes;
+		List<String> attrlist = Arrays.asList(names.split(","));
 		boolean readall = attrlist.contains("*");
-		Map<String, Object> ret = new HashMap<>();
 		if (readall || attrlist.contains("owner"))
 			ret.put("owner", attr.owner());
 		if (readall || attrlist.contains("group"))
 			ret.put("group", attr.group());
 		if (readall || attrlist.contains("permissions"))
 			ret.put("permissions", attr.permissions());
-		return ret;
 	}
 
 }
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package de.tiqsolutions.hdfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.RemoteIterator;
+
+/**
+ * Pulls a listing on a background thread in batches, so the next batch is
+ * fetched from the namenode while the consumer works on the current one. At
+ * most the given number of batches is fetched ahead.
+ */
+class PrefetchingStatusIterator implements RemoteIterator<FileStatus>,
+		Closeable {
+
+	private static final List<FileStatus> END = Collections.emptyList();
+
+	private final BlockingQueue<Object> batches;
+	private final Future<?> task;
+	private Iterator<FileStatus> current = Collections.emptyIterator();
+	private boolean done = false;
+	private volatile boolean closed = false;
+
+	PrefetchingStatusIterator(final RemoteIterator<FileStatus> source,
+			int prefetch, final int batchSize, ExecutorService executor) {
+		batches = new ArrayBlockingQueue<>(Math.max(prefetch, 1));
+		task = executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					try {
+						List<FileStatus> batch = new ArrayList<>(batchSize);
+						while (source.hasNext()) {
+							batch.add(source.next());
+							if (batch.size() >= batchSize) {
+								batches.put(batch);
+								batch = new ArrayList<>(batchSize);
+							}
+						}
+						if (!batch.isEmpty())
+							batches.put(batch);
+						batches.put(END);
+					} catch (InterruptedException e) {
+						throw e;
+					} catch (Throwable t) {
+						// the consumer waits for a batch, so it always gets
+						// one unless it is gone. A close after the check
+						// interrupts the put.
+						if (!closed)
+							batches.put(t);
+					}
+				} catch (InterruptedException e) {
+					// closed by the consumer
+				}
+			}
+		});
+	}
+
+	@Override
+	public boolean hasNext() throws IOException {
+		while (!current.hasNext()) {
+			if (done)
+				return false;
+			Object batch;
+			try {
+				batch = batches.take();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException(e.getLocalizedMessage());
+			}
+			if (batch instanceof Throwable) {
+				done = true;
+				if (batch instanceof IOException)
+					throw (IOException) batch;
+				throw new IOException((Throwable) batch);
+			}
+			if (batch == END) {
+				done = true;
+				return false;
+			}
+			@SuppressWarnings("unchecked")
+			List<FileStatus> list = (List<FileStatus>) batch;
+			current = list.iterator();
+		}
+		return true;
+	}
+
+	@Override
+	public FileStatus next() throws IOException {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return current.next();
+	}
+
+	@Override
+	public void close() {
+		done = true;
+		closed = true;
+		task.cancel(true);
+	}
+
+}
@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package de.tiqsolutions.hdfs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+
+/**
+ * Hands filled buffers to a writer thread, so the caller can go on producing
+ * data while the previous buffer is written to the datanode pipeline. At most
+ * the given number of buffers is in flight, a write error is thrown by the
+ * next call to write, flush or close.
+ */
+class WriteBehindOutputStream extends OutputStream {
+
+	private static final ByteBuffer CLOSE = ByteBuffer.allocate(0);
+
+	private final FSDataOutputStream out;
+	private final HadoopBufferPool pool;
+	private final int bufferSize;
+	private final BlockingQueue<ByteBuffer> queue;
+	private final long startPos;
+	private long count = 0;
+	private int pending = 0;
+	private boolean closed = false;
+	private boolean writerDone = false;
+	private volatile IOException failure;
+	private ByteBuffer current;
+
+	WriteBehindOutputStream(FSDataOutputStream out, HadoopBufferPool pool,
+			int bufferSize, int buffers, Executor executor) throws IOException {
+		this.out = out;
+		this.pool = pool;
+		this.bufferSize = bufferSize;
+		this.queue = new ArrayBlockingQueue<>(Math.max(buffers, 1));
+		this.startPos = out.getPos();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					drain();
+				}
+			});
+		} catch (RuntimeException e) {
+			// the file system is closed, nobody else will close the stream
+			try {
+				out.close();
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+	}
+
+	private void drain() {
+		try {
+			while (true) {
+				ByteBuffer buffer;
+				try {
+					buffer = queue.take();
+				} catch (InterruptedException e) {
+					failure = new InterruptedIOException(
+							"write behind interrupted");
+					return;
+				}
+				if (buffer == CLOSE)
+					return;
+				try {
+					if (failure == null)
+						out.write(buffer.array(), buffer.arrayOffset(),
+								buffer.position());
+				} catch (IOException e) {
+					failure = e;
+				} catch (RuntimeException e) {
+					failure = new IOException(e.getLocalizedMessage(), e);
+				} finally {
+					pool.putBuffer(buffer);
+					synchronized (this) {
+						pending--;
+						notifyAll();
+					}
+				}
+			}
+		} finally {
+			synchronized (this) {
+				writerDone = true;
+				notifyAll();
+			}
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		IOException e = failure;
+		if (e != null)
+			throw new IOException(e.getLocalizedMessage(), e);
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed)
+			throw new IOException("stream closed");
+		checkFailure();
+	}
+
+	private void submit(ByteBuffer buffer) throws IOException {
+		synchronized (this) {
+			if (writerDone) {
+				pool.putBuffer(buffer);
+				checkFailure();
+				throw new IOException("write behind stopped");
+			}
+			pending++;
+		}
+		try {
+			queue.put(buffer);
+		} catch (InterruptedException e) {
+			synchronized (this) {
+				pending--;
+			}
+			pool.putBuffer(buffer);
+			throw new InterruptedIOException(e.getLocalizedMessage());
+		}
+	}
+
+	private void submitCurrent() throws IOException {
+		if (current == null || current.position() == 0)
+			return;
+		ByteBuffer buffer = current;
+		current = null;
+		submit(buffer);
+	}
+
+	private synchronized void awaitPending() throws IOException {
+		while (pending > 0 && !writerDone) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException(e.getLocalizedMessage());
+			}
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		while (len > 0) {
+			if (current == null)
+				current = pool.getBuffer(false, bufferSize);
+			int n = Math.min(len, current.remaining());
+			current.put(b, off, n);
+			off += n;
+			len -= n;
+			count += n;
+			if (!current.hasRemaining())
+				submitCurrent();
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		submitCurrent();
+		awaitPending();
+		checkFailure();
+		out.hflush();
+	}
+
+	/**
+	 * @return the position in the file after all accepted bytes are written
+	 */
+	long getPos() {
+		return startPos + count;
+	}
+
+	/**
+	 * Queues the end marker and waits for the writer to stop, interrupts are
+	 * kept for later as the stream must not be closed under the writer.
+	 */
+	private synchronized void stopWriter() {
+		boolean queued = false;
+		boolean interrupted = false;
+		// the writer notifies after every buffer it took, so a full queue
+		// has room again when woken
+		while (!writerDone) {
+			if (!queued)
+				queued = queue.offer(CLOSE);
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		for (ByteBuffer buffer; (buffer = queue.poll()) != null;)
+			if (buffer != CLOSE)
+				pool.putBuffer(buffer);
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		InterruptedIOException interrupted = null;
+		try {
+			try {
+				if (failure == null)
+					submitCurrent();
+				awaitPending();
+			} catch (InterruptedIOException e) {
+				// the writer drops the buffers left
+				interrupted = e;
+				if (failure == null)
+					failure = e;
+			} finally {
+				if (current != null) {
+					pool.putBuffer(current);
+					current = null;
+				}
+				stopWriter();
+			}
+			if (interrupted != null) {
+				Thread.currentThread().interrupt();
+				throw interrupted;
+			}
+			checkFailure();
+		} finally {
+			out.close();
+		}
+	}
+
+}
@@ -87,6 +87,42 @@ public class HadoopFileSystemPathTest extends HadoopTestBase {
 				(Object) this.fs.getPath("/", new String[0]));
 	}
 
+	@Test
+	public void testDerivedValuesBuiltOnce() {
+		// repeated calls hand out the instance built by the first one
+		HadoopFileSystemPath p = (HadoopFileSystemPath) this.fs.getPath(
+				"/a/b/c.txt", new String[0]);
+		Assert.assertSame(p.toUri(), p.toUri());
+		Assert.assertSame(p.getParent(), p.getParent());
+		Assert.assertSame(p.toAbsolutePath(), p.toAbsolutePath());
+		Assert.assertSame(p.getPath(), p.getPath());
+		Assert.assertEquals(p.hashCode(), p.hashCode());
+
+		// name operations work on the names and give equal results
+		Assert.assertEquals(3, p.getNameCount());
+		Assert.assertEquals(this.fs.getPath("b/", new String[0]), p.getName(1));
+		Assert.assertEquals(this.fs.getPath("b/c.txt", new String[0]),
+				p.subpath(1, 3));
+		Assert.assertTrue(p.startsWith(this.fs.getPath("/a", new String[0])));
+		Assert.assertTrue(p.endsWith(this.fs.getPath("b/c.txt",
+				new String[0])));
+	}
+
+	@Test
+	public void testGetParentOfRoot() {
+		Assert.assertNull(this.fs.getPath("/", new String[0]).getParent());
+		Assert.assertNull(this.fs.getPath("/", new String[0]).getFileName());
+	}
+
+	@Test
+	public void testGetParentInterned() {
+		Path p1 = this.fs.getPath("/test/", "test1.csv").toAbsolutePath();
+		Path p2 = this.fs.getPath("/test/", "test2.csv").toAbsolutePath();
+		Assert.assertSame(p1.getParent(), p2.getParent());
+		HadoopFileSystemPath parent = (HadoopFileSystemPath) p1.getParent();
+		Assert.assertSame(parent.getPath(), parent.getPath());
+	}
+
 	@Test
 	public void testGetNameCount() {
 		Assert.assertEquals((long) 2,
@@ -120,6 +156,17 @@ public class HadoopFileSystemPathTest extends HadoopTestBase {
 				this.fs.getPath("/test/", new String[0])));
 	}
 
+	@Test
+	public void testStartsWithQualifiedPath() {
+		Path p = this.fs.getPath(BASE_URI.resolve("/test/test.csv").toString(),
+				new String[0]);
+		Assert.assertTrue(p.startsWith(this.fs.getPath("/test", new String[0])));
+		Assert.assertFalse(p.startsWith(this.fs.getPath("/tes", new String[0])));
+		Assert.assertEquals(p, this.fs.getPath("/test/test.csv", new String[0]));
+		Assert.assertEquals(p.hashCode(),
+				this.fs.getPath("/test/test.csv", new String[0]).hashCode());
+	}
+
 	@Test
 	public void testStartsWithString() {
 		Assert.assertTrue((boolean) this.fs.getPath("/test/test.csv",
@@ -18,10 +18,16 @@
  *******************************************************************************/
 package de.tiqsolutions.hdfs;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.AccessMode;
 import java.nio.file.CopyOption;
@@ -32,24 +38,57 @@ import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFileAttributes;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.nio.file.spi.FileSystemProvider;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.hdfs.DFSClientFaultInjector;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.security.UserGroupInformation;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 public class HadoopFileSystemProviderTest extends HadoopTestBase {
@@ -92,6 +131,60 @@ public class HadoopFileSystemProviderTest extends HadoopTestBase {
 		}
 	}
 
+	@Test
+	public void testGetFileSystemAuthority() throws IOException,
+			URISyntaxException {
+		URI upper = new URI(this.hdfsfile.getScheme(), null, this.hdfsfile
+				.getHost().toUpperCase(), this.hdfsfile.getPort(), "/", null,
+				null);
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+			Assert.assertSame(fs, FileSystems.getFileSystem(upper));
+			Assert.assertSame(fs, Paths.get(upper).getFileSystem());
+		}
+		try (FileSystem fs = FileSystems.newFileSystem(upper, System.getenv())) {
+			Assert.assertSame(fs, FileSystems.getFileSystem(this.hdfsfile));
+		}
+	}
+
+	@Test
+	public void testNewFileSystemConcurrent() throws Exception {
+		// threads racing to create the file system of one authority
+		final int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<FileSystem>> futures = new ArrayList<>();
+			for (int i = 0; i < threads; i++)
+				futures.add(executor.submit(new Callable<FileSystem>() {
+					@Override
+					public FileSystem call() throws Exception {
+						start.await();
+						try {
+							return FileSystems.newFileSystem(hdfsfile,
+									System.getenv());
+						} catch (FileSystemAlreadyExistsException e) {
+							return null;
+						}
+					}
+				}));
+			start.countDown();
+			List<FileSystem> created = new ArrayList<>();
+			for (Future<FileSystem> future : futures) {
+				FileSystem fs = future.get();
+				if (fs != null)
+					created.add(fs);
+			}
+			Assert.assertEquals(1, created.size());
+			try (FileSystem fs = created.get(0)) {
+				Assert.assertTrue(fs.isOpen());
+				Assert.assertSame(fs, FileSystems.getFileSystem(this.hdfsfile));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
 	@Test(expected = FileSystemNotFoundException.class)
 	public void testGetFileSystemBeforeNew() throws IOException {
 		FileSystems.getFileSystem(this.hdfsfile);
@@ -156,6 +249,1129 @@ public class HadoopFileSystemProviderTest extends HadoopTestBase {
 		}
 	}
 
+	@Test
+	public void testNewInputOutputStream() throws IOException {
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+			FileSystemProvider provider = fs.provider();
+			Path path = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			try (OutputStream out = provider.newOutputStream(path,
+					StandardOpenOption.CREATE_NEW)) {
+				out.write("test".getBytes());
+			}
+			try (OutputStream out = provider.newOutputStream(path,
+					StandardOpenOption.TRUNCATE_EXISTING,
+					HadoopOpenOption.WRITE_BEHIND)) {
+				out.write("testdata".getBytes());
+			}
+			Assert.assertEquals(8, Files.size(path));
+
+			try (InputStream in = provider.newInputStream(path,
+					StandardOpenOption.DELETE_ON_CLOSE)) {
+				byte[] buf = new byte[20];
+				int len = 0;
+				for (int n; (n = in.read(buf, len, buf.length - len)) > 0;)
+					len += n;
+				Assert.assertEquals("testdata", new String(buf, 0, len));
+			}
+			Assert.assertFalse(Files.exists(path));
+		}
+	}
+
+	@Test
+	public void testReadAllBytes() throws IOException {
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+			HadoopFileSystemProvider provider = (HadoopFileSystemProvider) fs
+					.provider();
+			Path dir = fs.getPath(String.format("/%d/",
+					System.currentTimeMillis()));
+			Files.createDirectory(dir);
+			List<Path> paths = new ArrayList<>();
+			for (int i = 0; i < 5; i++) {
+				Path path = dir.resolve(String.format("file%d", i));
+				byte[] data = new byte[i * 1000];
+				Arrays.fill(data, (byte) i);
+				Files.write(path, data);
+				paths.add(path);
+			}
+			Assert.assertArrayEquals(Files.readAllBytes(paths.get(3)),
+					provider.readAllBytes(paths.get(3)));
+			Assert.assertEquals(0, provider.readAllBytes(paths.get(0)).length);
+
+			Map<Path, byte[]> contents = ((HadoopFileSystem) fs).readAllBytes(
+					paths, 2);
+			Assert.assertEquals(paths, new ArrayList<>(contents.keySet()));
+			for (int i = 0; i < 5; i++)
+				Assert.assertEquals(i * 1000, contents.get(paths.get(i)).length);
+
+			// duplicates are read once and give a single entry
+			contents = ((HadoopFileSystem) fs).readAllBytes(Arrays.asList(
+					paths.get(2), paths.get(1), paths.get(2)), 2);
+			Assert.assertEquals(Arrays.asList(paths.get(2), paths.get(1)),
+					new ArrayList<>(contents.keySet()));
+			Assert.assertEquals(2000, contents.get(paths.get(2)).length);
+
+			paths.add(dir.resolve("missing"));
+			try {
+				provider.readAllBytes(paths.get(5));
+				Assert.fail();
+			} catch (NoSuchFileException e) {
+			}
+			try {
+				((HadoopFileSystem) fs).readAllBytes(paths, 2);
+				Assert.fail();
+			} catch (NoSuchFileException e) {
+			}
+			provider.delete(dir, true);
+		}
+	}
+
+	@Test
+	public void testNewByteChannelPosition() throws IOException {
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+
+			FileSystemProvider provider = fs.provider();
+			Path path = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			byte[] data = new byte[16 * 1024];
+			for (int i = 0; i < data.length; i++)
+				data[i] = (byte) i;
+			try (SeekableByteChannel channel = provider.newByteChannel(path,
+					EnumSet.of(StandardOpenOption.CREATE_NEW,
+							StandardOpenOption.WRITE), new FileAttribute[0])) {
+				channel.write(ByteBuffer.wrap(data));
+			}
+
+			try (SeekableByteChannel channel = provider.newByteChannel(path,
+					EnumSet.of(StandardOpenOption.DELETE_ON_CLOSE,
+							StandardOpenOption.READ), new FileAttribute[0])) {
+				ByteBuffer buffer = ByteBuffer.allocate(10);
+				for (long pos : new long[] { 100, 50, 60, 10000, 200 }) {
+					channel.position(pos);
+					Assert.assertEquals(pos, channel.position());
+					buffer.clear();
+					while (buffer.hasRemaining())
+						channel.read(buffer);
+					Assert.assertArrayEquals(Arrays.copyOfRange(data,
+							(int) pos, (int) pos + 10), buffer.array());
+					Assert.assertEquals(pos + 10, channel.position());
+				}
+				channel.position(data.length + 10);
+				Assert.assertEquals(data.length + 10L, channel.position());
+				buffer.clear();
+				Assert.assertEquals(-1, channel.read(buffer));
+
+				// a short skip which stops at the end of the file
+				channel.position(data.length - 100);
+				buffer.clear();
+				while (buffer.hasRemaining())
+					channel.read(buffer);
+				channel.position(data.length + 100);
+				buffer.clear();
+				Assert.assertEquals(-1, channel.read(buffer));
+				Assert.assertEquals(data.length + 100L, channel.position());
+
+				// the stream is still usable after reads beyond the end
+				channel.position(200);
+				while (buffer.hasRemaining())
+					channel.read(buffer);
+				Assert.assertArrayEquals(Arrays.copyOfRange(data, 200, 210),
+						buffer.array());
+			}
+		}
+	}
+
+	@Test
+	public void testNewByteChannelPositionReadOps() throws IOException,
+			JMException, InterruptedException {
+		// short forward positions stay within the open block reader
+		Assume.assumeTrue("hdfs".equals(this.hdfsfile.getScheme()));
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+			Path path = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			Files.write(path, new byte[64 * 1024]);
+			long ops = getDataNodeMetric(hdfsCluster, "ReadBlockOpNumOps")[0];
+			try (SeekableByteChannel channel = fs.provider().newByteChannel(
+					path, EnumSet.of(StandardOpenOption.READ))) {
+				ByteBuffer buffer = ByteBuffer.allocate(10);
+				for (int i = 0; i < 20; i++) {
+					channel.position(i * 1000);
+					buffer.clear();
+					while (buffer.hasRemaining())
+						channel.read(buffer);
+				}
+			}
+			Assert.assertEquals(ops + 1,
+					awaitDataNodeMetric(hdfsCluster, "ReadBlockOpNumOps", ops));
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testNewInputStreamSkip() throws IOException, JMException,
+			InterruptedException {
+		// a skip seeks the hdfs stream instead of reading the skipped bytes
+		Assume.assumeTrue("hdfs".equals(this.hdfsfile.getScheme()));
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+			Path path = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			byte[] data = new byte[1024 * 1024];
+			for (int i = 0; i < data.length; i++)
+				data[i] = (byte) i;
+			Files.write(path, data);
+			long bytesRead = getDataNodeMetric(hdfsCluster, "BytesRead")[0];
+			byte[] tail = new byte[1000];
+			try (InputStream in = fs.provider().newInputStream(path)) {
+				long skip = data.length - tail.length;
+				while (skip > 0)
+					skip -= in.skip(skip);
+				int read = 0;
+				while (read < tail.length)
+					read += in.read(tail, read, tail.length - read);
+				Assert.assertEquals(-1, in.read());
+			}
+			Assert.assertArrayEquals(
+					Arrays.copyOfRange(data, data.length - tail.length,
+							data.length), tail);
+			// the tail and a checksum chunk of alignment at most
+			long sent = awaitDataNodeMetric(hdfsCluster, "BytesRead",
+					bytesRead) - bytesRead;
+			Assert.assertTrue(String.valueOf(sent), sent > 0
+					&& sent < 64 * 1024);
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testNewByteChannelSize() throws IOException {
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+
+			FileSystemProvider provider = fs.provider();
+			Path path = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			Files.write(path, new byte[1000]);
+			HadoopFileSystemStatistics statistics = ((HadoopFileSystem) fs)
+					.getStatistics();
+
+			try (SeekableByteChannel channel = provider.newByteChannel(path,
+					EnumSet.of(StandardOpenOption.DELETE_ON_CLOSE,
+							StandardOpenOption.READ))) {
+				long requests = statistics.getFileStatusRequests();
+				ByteBuffer buffer = ByteBuffer.allocate(10);
+				while (channel.position() < channel.size()) {
+					buffer.clear();
+					channel.read(buffer);
+				}
+				Assert.assertEquals(1000L, channel.position());
+				// hdfs streams know their length, the end asks once for growth
+				Assert.assertEquals(
+						"hdfs".equals(this.hdfsfile.getScheme()) ? 1 : 2,
+						statistics.getFileStatusRequests() - requests);
+			}
+		}
+	}
+
+	@Test
+	public void testNewByteChannelSizeGrowing() throws IOException {
+		// only hdfs makes data of a file being written visible to readers
+		Assume.assumeTrue("hdfs".equals(this.hdfsfile.getScheme()));
+		Map<String, String> env = new HashMap<>(System.getenv());
+		env.put(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, "1m");
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile, env)) {
+			FileSystemProvider provider = fs.provider();
+			Path path = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			int block = 1024 * 1024;
+			try (FileChannel writer = FileChannel.open(path,
+					StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+				writer.write(ByteBuffer.allocate(block + 10));
+				writer.force(true);
+				try (SeekableByteChannel reader = provider.newByteChannel(path,
+						EnumSet.of(StandardOpenOption.READ));
+						FileChannel positional = FileChannel.open(path,
+								StandardOpenOption.READ)) {
+					Assert.assertEquals(block + 10L, reader.size());
+					Assert.assertEquals(block + 10L, positional.size());
+
+					// a new block makes the sync report the length to the namenode
+					writer.write(ByteBuffer.allocate(block));
+					writer.force(true);
+					reader.position(block + 10);
+					Assert.assertEquals(2L * block + 10, reader.size());
+					Assert.assertEquals(block + 10L, positional.size());
+					Assert.assertEquals(10,
+							positional.read(ByteBuffer.allocate(10), block));
+					Assert.assertEquals(2L * block + 10, positional.size());
+				}
+			}
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testWriteBehindRejected() throws IOException {
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+			HadoopFileSystem hfs = (HadoopFileSystem) fs;
+			Path path = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			org.apache.hadoop.fs.Path file = ((HadoopFileSystemPath) path)
+					.getPath();
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			executor.shutdown();
+			try {
+				new WriteBehindOutputStream(hfs.getFileContext().create(file,
+						EnumSet.of(CreateFlag.CREATE)), hfs.getBufferPool(),
+						1024, 2, executor);
+				Assert.fail();
+			} catch (RejectedExecutionException e) {
+			}
+			Assert.assertTrue(hdfsCluster.getFileSystem().isFileClosed(
+					new org.apache.hadoop.fs.Path(file.toUri().getPath())));
+			Files.delete(path);
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testWriteBehindInterruptedClose() throws IOException {
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+			HadoopFileSystem hfs = (HadoopFileSystem) fs;
+			// a slow stream which records a close during a write
+			final AtomicBoolean writing = new AtomicBoolean();
+			final AtomicBoolean closedWhileWriting = new AtomicBoolean();
+			OutputStream slow = new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					write(new byte[] { (byte) b }, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len)
+						throws IOException {
+					writing.set(true);
+					try {
+						Thread.sleep(300);
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					} finally {
+						writing.set(false);
+					}
+				}
+
+				@Override
+				public void close() {
+					closedWhileWriting.set(writing.get());
+				}
+			};
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				OutputStream out = new WriteBehindOutputStream(
+						new FSDataOutputStream(slow, null),
+						hfs.getBufferPool(), 1024, 2, executor);
+				out.write(new byte[4 * 1024]);
+				Thread.currentThread().interrupt();
+				try {
+					out.close();
+					Assert.fail();
+				} catch (InterruptedIOException e) {
+				}
+				Assert.assertFalse(closedWhileWriting.get());
+				Assert.assertTrue(Thread.interrupted());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	@Test
+	public void testNewByteChannelWriteBehind() throws IOException {
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+
+			FileSystemProvider provider = fs.provider();
+			Path path = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			byte[] data = new byte[3 * 1024 * 1024 + 17];
+			for (int i = 0; i < data.length; i++)
+				data[i] = (byte) i;
+			HadoopBufferPool pool = ((HadoopFileSystemProvider) provider)
+					.getBufferPool();
+			long inUse = pool.getBytesInUse();
+
+			try (SeekableByteChannel channel = provider.newByteChannel(path,
+					new HashSet<OpenOption>(Arrays.asList(
+							StandardOpenOption.CREATE_NEW,
+							StandardOpenOption.WRITE,
+							HadoopOpenOption.WRITE_BEHIND)))) {
+				ByteBuffer buffer = ByteBuffer.wrap(data);
+				while (buffer.hasRemaining()) {
+					buffer.limit(Math.min(buffer.position() + 100000,
+							data.length));
+					channel.write(buffer);
+					buffer.limit(data.length);
+				}
+				Assert.assertEquals(data.length, channel.position());
+			}
+			Assert.assertEquals(inUse, pool.getBytesInUse());
+			Assert.assertArrayEquals(data, Files.readAllBytes(path));
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testNewByteChannelAdaptiveReadahead() throws IOException,
+			InterruptedException {
+		Map<String, String> env = new HashMap<>(System.getenv());
+		env.put(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, "1m");
+		env.put(HadoopConfigKeys.READAHEAD_ADAPTIVE_BYTES_KEY, "262144");
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile, env)) {
+			FileSystemProvider provider = fs.provider();
+			HadoopFileSystemStatistics statistics = ((HadoopFileSystem) fs)
+					.getStatistics();
+			Path path = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			byte[] data = new byte[3 * 1024 * 1024 + 512 * 1024];
+			for (int i = 0; i < data.length; i++)
+				data[i] = (byte) (i / 7);
+			Files.write(path, data);
+			HadoopBufferPool pool = ((HadoopFileSystemProvider) provider)
+					.getBufferPool();
+			long inUse = pool.getBytesInUse();
+
+			long prefetches = statistics.getReadaheadPrefetches();
+			byte[] read = new byte[data.length];
+			try (SeekableByteChannel channel = provider.newByteChannel(path,
+					new HashSet<OpenOption>(Arrays.asList(
+							StandardOpenOption.READ,
+							HadoopOpenOption.ADAPTIVE_READAHEAD,
+							HadoopOpenOption.DROP_BEHIND,
+							HadoopReadaheadOption.of(64 * 1024))))) {
+				ByteBuffer buffer = ByteBuffer.wrap(read);
+				while (buffer.hasRemaining()) {
+					buffer.limit(Math.min(buffer.position() + 50000,
+							read.length));
+					if (channel.read(buffer) < 0)
+						break;
+					buffer.limit(read.length);
+				}
+				Assert.assertEquals(data.length, channel.position());
+				Assert.assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+
+				// jumps back into the first block and reads across a boundary
+				channel.position(1024 * 1024 - 100);
+				buffer = ByteBuffer.allocate(100000);
+				while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+					;
+				Assert.assertArrayEquals(Arrays.copyOfRange(data,
+						1024 * 1024 - 100, 1024 * 1024 - 100 + 100000),
+						buffer.array());
+			}
+			Assert.assertArrayEquals(data, read);
+			Assert.assertEquals(prefetches + 3,
+					statistics.getReadaheadPrefetches());
+			Assert.assertEquals(inUse, pool.getBytesInUse());
+
+			long requests = statistics.getFileStatusRequests();
+			try (SeekableByteChannel channel = provider.newByteChannel(path,
+					new HashSet<OpenOption>(Arrays.asList(
+							StandardOpenOption.READ,
+							HadoopOpenOption.ADAPTIVE_READAHEAD)))) {
+				// a reader which is not sequential asks for no status
+				channel.read(ByteBuffer.allocate(1000));
+				Assert.assertEquals(requests, statistics.getFileStatusRequests());
+
+				// starts a prefetch and seeks away from it right away
+				channel.position(2 * 1024 * 1024 - 200 * 1024);
+				channel.read(ByteBuffer.allocate(50000));
+				channel.read(ByteBuffer.allocate(50000));
+				channel.position(0);
+				ByteBuffer buffer = ByteBuffer.allocate(1000);
+				channel.read(buffer);
+				Assert.assertArrayEquals(Arrays.copyOfRange(data, 0, 1000),
+						buffer.array());
+			}
+			// the dropped prefetch releases its buffer once it completes
+			long deadline = System.currentTimeMillis() + 10000;
+			while (pool.getBytesInUse() != inUse
+					&& System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			Assert.assertEquals(inUse, pool.getBytesInUse());
+			Files.delete(path);
+		}
+	}
+
+	/**
+	 * @return the value of a datanode metric for each datanode of the cluster
+	 */
+	private static long[] getDataNodeMetric(MiniDFSCluster cluster,
+			String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		List<DataNode> dataNodes = cluster.getDataNodes();
+		long[] values = new long[dataNodes.size()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = (Long) server.getAttribute(new ObjectName(
+					"Hadoop:service=DataNode,name="
+							+ dataNodes.get(i).getMetrics().name()), name);
+		return values;
+	}
+
+	/**
+	 * @return the metric of the first datanode once it changed from the
+	 *         previous value and then held still, the datanode updates it
+	 *         after the client closed its reader
+	 */
+	private static long awaitDataNodeMetric(MiniDFSCluster cluster,
+			String name, long previous) throws JMException,
+			InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		long value = previous;
+		long changed = System.currentTimeMillis();
+		while (true) {
+			long current = getDataNodeMetric(cluster, name)[0];
+			long now = System.currentTimeMillis();
+			if (current != value) {
+				value = current;
+				changed = now;
+			} else if (value != previous && now - changed >= 300) {
+				return value;
+			}
+			Assert.assertTrue(name, now < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void testFileChannelHedgedRead() throws Exception {
+		// runs against a cluster of its own holding two replicas of a block
+		Assume.assumeTrue("hdfs".equals(this.hdfsfile.getScheme()));
+		File baseDir = new File("./target/hdfs/" + getClass().getName()
+				+ "-hedged").getAbsoluteFile();
+		FileUtil.fullyDelete(baseDir);
+		Configuration conf = new Configuration();
+		conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, baseDir.getAbsolutePath());
+		MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+				.numDataNodes(2).build();
+		DFSClientFaultInjector injector = DFSClientFaultInjector.instance;
+		try {
+			cluster.waitActive();
+			Map<String, String> env = new HashMap<>(System.getenv());
+			env.put(DFSConfigKeys.DFS_REPLICATION_KEY, "2");
+			env.put(HadoopConfigKeys.HEDGED_READ_THRESHOLD_KEY, "100");
+			try (FileSystem fs = FileSystems.newFileSystem(cluster.getURI(),
+					env)) {
+				HadoopFileSystemStatistics statistics = ((HadoopFileSystem) fs)
+						.getStatistics();
+				Path path = fs.getPath("/hedged");
+				byte[] data = new byte[64 * 1024];
+				for (int i = 0; i < data.length; i++)
+					data[i] = (byte) (i / 3);
+				Files.write(path, data);
+
+				// the first fetch from a datanode of each round stalls
+				final AtomicBoolean slow = new AtomicBoolean();
+				DFSClientFaultInjector.instance = new DFSClientFaultInjector() {
+					@Override
+					public void startFetchFromDatanode() {
+						if (!slow.compareAndSet(true, false))
+							return;
+						try {
+							Thread.sleep(1000);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				};
+				// each channel opens a hedge stream of its own
+				for (int round = 1; round <= 5; round++) {
+					try (FileChannel channel = FileChannel.open(path,
+							StandardOpenOption.READ)) {
+						slow.set(true);
+						ByteBuffer buffer = ByteBuffer.allocate(1000);
+						long start = System.nanoTime();
+						Assert.assertEquals(1000, channel.read(buffer, 5000));
+						Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System
+								.nanoTime() - start) < 1000);
+						Assert.assertArrayEquals(
+								Arrays.copyOfRange(data, 5000, 6000),
+								buffer.array());
+						Assert.assertEquals(round, statistics.getHedgedReads());
+						Assert.assertEquals(round,
+								statistics.getHedgedReadWins());
+
+						buffer.clear();
+						Assert.assertEquals(1000, channel.read(buffer, 0));
+						Assert.assertArrayEquals(
+								Arrays.copyOfRange(data, 0, 1000),
+								buffer.array());
+						Assert.assertEquals(round, statistics.getHedgedReads());
+					}
+				}
+			}
+		} finally {
+			DFSClientFaultInjector.instance = injector;
+			cluster.shutdown();
+		}
+	}
+
+	@Test
+	public void testParallelWriter() throws Exception {
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+
+			Path path = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			final int blockSize = 1024 * 1024;
+			FileAttribute<Long> blockSizeAttribute = new FileAttribute<Long>() {
+				@Override
+				public String name() {
+					return "hdfs:blockSize";
+				}
+
+				@Override
+				public Long value() {
+					return (long) blockSize;
+				}
+			};
+			final byte[] data = new byte[2 * blockSize + 1000];
+			for (int i = 0; i < data.length; i++)
+				data[i] = (byte) (i / 7);
+
+			try (final HadoopParallelWriter writer = ((HadoopFileSystem) fs)
+					.newParallelWriter(path, 4, blockSizeAttribute)) {
+				Assert.assertEquals(blockSize, writer.getBlockSize());
+				List<Thread> threads = new ArrayList<>();
+				final List<Exception> errors = Collections
+						.synchronizedList(new ArrayList<Exception>());
+				// the third part stays empty
+				final int[] offsets = { 0, blockSize, 2 * blockSize,
+						2 * blockSize, data.length };
+				for (int i = 0; i < 4; i++) {
+					final int part = i;
+					Thread thread = new Thread() {
+						@Override
+						public void run() {
+							try {
+								writer.getPart(part).write(
+										ByteBuffer.wrap(data, offsets[part],
+												offsets[part + 1]
+														- offsets[part]));
+							} catch (Exception e) {
+								errors.add(e);
+							}
+						}
+					};
+					thread.start();
+					threads.add(thread);
+				}
+				for (Thread thread : threads)
+					thread.join();
+				Assert.assertTrue(errors.toString(), errors.isEmpty());
+				writer.commit();
+			}
+			Assert.assertArrayEquals(data, Files.readAllBytes(path));
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(path
+					.getParent())) {
+				for (Path p : stream)
+					Assert.assertFalse(p.getFileName().toString()
+							.startsWith("." + path.getFileName()));
+			}
+
+			Path aborted = fs.getPath("/",
+					String.format("%d.aborted", System.currentTimeMillis()));
+			try (HadoopParallelWriter writer = ((HadoopFileSystem) fs)
+					.newParallelWriter(aborted, 2)) {
+				writer.getPart(1).write(ByteBuffer.wrap(data, 0, 100));
+			}
+			Assert.assertFalse(Files.exists(aborted));
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testCopyParallel() throws IOException {
+		Map<String, String> env = new HashMap<>(System.getenv());
+		env.put("dfs.blocksize", Integer.toString(1024 * 1024));
+		env.put(HadoopConfigKeys.PARALLEL_COPY_THRESHOLD_KEY, "1");
+		env.put(HadoopConfigKeys.PARALLEL_COPY_THREADS_KEY, "3");
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile, env)) {
+
+			byte[] data = new byte[3 * 1024 * 1024 + 4711];
+			for (int i = 0; i < data.length; i++)
+				data[i] = (byte) (i % 251);
+			Path local = Files.createTempFile("parallel", ".bin");
+			Path target = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			Path copy = target.resolveSibling(target.getFileName() + ".copy");
+			try {
+				Files.write(local, data);
+				fs.provider().copy(local, target);
+				Assert.assertArrayEquals(data, Files.readAllBytes(target));
+				Files.copy(target, copy);
+				Assert.assertArrayEquals(data, Files.readAllBytes(copy));
+			} finally {
+				Files.delete(local);
+				Files.deleteIfExists(target);
+				Files.deleteIfExists(copy);
+			}
+		}
+	}
+
+	@Test
+	public void testStatusCache() throws IOException {
+		Map<String, String> env = new HashMap<>(System.getenv());
+		env.put(HadoopConfigKeys.STATUS_CACHE_TTL_KEY, "60000");
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile, env)) {
+			HadoopFileSystemStatistics statistics = ((HadoopFileSystem) fs)
+					.getStatistics();
+			Path path = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			Files.write(path, new byte[10]);
+
+			long requests = statistics.getFileStatusRequests();
+			Assert.assertEquals(10, Files.size(path));
+			Assert.assertFalse(Files.isDirectory(path));
+			Files.getLastModifiedTime(path);
+			Assert.assertEquals(requests + 1,
+					statistics.getFileStatusRequests());
+			Assert.assertTrue(statistics.getFileStatusCacheHits() >= 2);
+
+			Files.write(path, new byte[20]);
+			Assert.assertEquals(20, Files.size(path));
+
+			// changes made outside the provider need a refresh
+			((HadoopFileSystem) fs).getFileContext()
+					.create(((HadoopFileSystemPath) path).getPath(),
+							EnumSet.of(CreateFlag.OVERWRITE)).close();
+			Assert.assertEquals(20, Files.size(path));
+			((HadoopFileSystem) fs).refresh(path);
+			Assert.assertEquals(0, Files.size(path));
+
+			Files.delete(path);
+			Assert.assertFalse(Files.exists(path));
+
+			// writing a file keeps the status of its siblings, removing a
+			// directory drops everything below it
+			Path dir = path.resolveSibling(path.getFileName() + ".dir/");
+			Path child = dir.resolve("sub/child");
+			Files.createDirectories(child.getParent());
+			Files.write(child, new byte[10]);
+			Assert.assertEquals(10, Files.size(child));
+			Files.write(dir.resolve("sub/sibling"), new byte[10]);
+			requests = statistics.getFileStatusRequests();
+			Assert.assertEquals(10, Files.size(child));
+			Assert.assertEquals(requests, statistics.getFileStatusRequests());
+			((HadoopFileSystemProvider) fs.provider()).delete(dir, true);
+			Assert.assertFalse(Files.exists(child));
+		}
+	}
+
+	@Test
+	public void testNewFileSystemSettings() throws IOException {
+		Map<String, String> env = new HashMap<>(System.getenv());
+		env.put(DFSConfigKeys.DFS_REPLICATION_KEY, "2");
+		env.put(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, "2m");
+		env.put(HadoopConfigKeys.BUFFER_POOL_MAX_BYTES_KEY, "1048576");
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile, env)) {
+			HadoopBufferPool pool = ((HadoopFileSystem) fs).getBufferPool();
+			Assert.assertNotSame(
+					((HadoopFileSystemProvider) fs.provider()).getBufferPool(),
+					pool);
+			Assert.assertEquals(1024 * 1024, pool.getMaxPooledBytes());
+			Path path = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			Files.write(path, new byte[10]);
+			Assert.assertEquals((short) 2,
+					Files.getAttribute(path, "hdfs:replication"));
+			Assert.assertEquals(2L * 1024 * 1024,
+					Files.getAttribute(path, "hdfs:blockSize"));
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testNewFileSystemSettingsResolvedOnce() throws IOException {
+		// counts the configurations built by a provider which delegates to
+		// the installed one of the scheme
+		HadoopFileSystemProvider installed = null;
+		for (FileSystemProvider p : FileSystemProvider.installedProviders())
+			if (p.getScheme().equals(this.hdfsfile.getScheme()))
+				installed = (HadoopFileSystemProvider) p;
+		final HadoopFileSystemProvider delegate = installed;
+		final AtomicInteger configurations = new AtomicInteger();
+		HadoopFileSystemProvider provider = new HadoopFileSystemProvider() {
+			@Override
+			protected Configuration getConfiguration() {
+				configurations.incrementAndGet();
+				return delegate.getConfiguration();
+			}
+		};
+		try (FileSystem fs = provider.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+			int created = configurations.get();
+			Path path = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			for (int i = 0; i < 10; i++) {
+				try (SeekableByteChannel channel = provider.newByteChannel(
+						path, EnumSet.of(StandardOpenOption.CREATE,
+								StandardOpenOption.WRITE))) {
+					channel.write(ByteBuffer.wrap(new byte[100]));
+				}
+				try (SeekableByteChannel channel = provider.newByteChannel(
+						path, EnumSet.of(StandardOpenOption.READ))) {
+					channel.read(ByteBuffer.allocate(100));
+				}
+				try (InputStream in = provider.newInputStream(path)) {
+					in.read(new byte[100]);
+				}
+			}
+			Assert.assertEquals(created, configurations.get());
+			provider.delete(path);
+		}
+	}
+
+	@Test
+	public void testReadAttributesSeveralViews() throws IOException {
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+			Path path = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			Files.write(path, new byte[10]);
+			HadoopFileSystemStatistics statistics = ((HadoopFileSystem) fs)
+					.getStatistics();
+
+			long requests = statistics.getFileStatusRequests();
+			Map<String, Object> attributes = fs.provider().readAttributes(
+					path,
+					"basic:size,lastModifiedTime;posix:owner;hdfs:replication");
+			Assert.assertEquals(requests + 1,
+					statistics.getFileStatusRequests());
+			Assert.assertEquals(4, attributes.size());
+			Assert.assertEquals(10L, attributes.get("size"));
+			Assert.assertNotNull(attributes.get("lastModifiedTime"));
+			Assert.assertNotNull(attributes.get("owner"));
+			Assert.assertNotNull(attributes.get("replication"));
+
+			attributes = fs.provider().readAttributes(path, "hdfs:*");
+			for (String name : Arrays.asList("size", "isDirectory", "owner",
+					"permissions", "blockSize", "replication", "isHidden"))
+				Assert.assertTrue(name, attributes.containsKey(name));
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testNewDirectoryStreamListingStatus() throws IOException {
+		Map<String, String> env = new HashMap<>(System.getenv());
+		env.put(HadoopConfigKeys.LISTING_STATUS_MAX_AGE_KEY, "60000");
+		String root = String.format("/listing%d/", System.currentTimeMillis());
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile, env)) {
+			// the names differ in the last character only, so the
+			// directories never share a generation stripe
+			Path dir = fs.getPath(root, "a/");
+			Path other = fs.getPath(root, "b/");
+			Files.createDirectories(dir);
+			Files.createDirectories(other);
+			for (int i = 0; i < 3; i++)
+				Files.write(dir.resolve(String.format("%d.txt", i)),
+						new byte[i]);
+			HadoopFileSystemStatistics statistics = ((HadoopFileSystem) fs)
+					.getStatistics();
+
+			List<Path> paths = new ArrayList<>();
+			long requests = statistics.getFileStatusRequests();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+				for (Path path : stream) {
+					Assert.assertTrue(Files.isRegularFile(path));
+					Assert.assertEquals(Integer.parseInt(path.getFileName()
+							.toString().substring(0, 1)), Files.size(path));
+					paths.add(path);
+				}
+			}
+			Assert.assertEquals(3, paths.size());
+			Assert.assertEquals(requests, statistics.getFileStatusRequests());
+
+			// modifications in other directories keep the listing
+			Files.write(other.resolve("x.txt"), new byte[1]);
+			Assert.assertEquals(1, Files.size(paths.get(1)));
+			Assert.assertEquals(requests, statistics.getFileStatusRequests());
+
+			// modifications in the listed directory outdate it
+			Files.write(paths.get(0), new byte[10]);
+			Assert.assertEquals(10, Files.size(paths.get(0)));
+			Assert.assertEquals(requests + 1,
+					statistics.getFileStatusRequests());
+		}
+
+		// without the setting every attribute read asks the file system
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+			HadoopFileSystemStatistics statistics = ((HadoopFileSystem) fs)
+					.getStatistics();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(fs
+					.getPath(root).resolve("a/"))) {
+				for (Path path : stream) {
+					long requests = statistics.getFileStatusRequests();
+					Files.size(path);
+					Assert.assertEquals(requests + 1,
+							statistics.getFileStatusRequests());
+				}
+			}
+			((HadoopFileSystemProvider) fs.provider()).delete(
+					fs.getPath(root), true);
+		}
+	}
+
+	@Test
+	public void testNewDirectoryStreamPrefetch() throws IOException {
+		Map<String, String> env = new HashMap<>(System.getenv());
+		env.put(HadoopConfigKeys.LISTING_PREFETCH_BATCHES_KEY, "2");
+		env.put("dfs.ls.limit", "2");
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile, env)) {
+			Path dir = fs.getPath(String.format("/prefetch%d/",
+					System.currentTimeMillis()));
+			Files.createDirectory(dir);
+			for (int i = 0; i < 7; i++)
+				Files.write(dir.resolve(String.format("%d.txt", i)),
+						new byte[0]);
+
+			Set<Path> paths = new HashSet<>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+				for (Path path : stream)
+					paths.add(path);
+			}
+			Assert.assertEquals(7, paths.size());
+
+			// closing early stops the prefetch
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+				Assert.assertTrue(stream.iterator().hasNext());
+			}
+			((HadoopFileSystemProvider) fs.provider()).delete(dir, true);
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testPrefetchingStatusIteratorFailure() throws IOException {
+		final IllegalStateException failure = new IllegalStateException();
+		RemoteIterator<FileStatus> listing = new RemoteIterator<FileStatus>() {
+			private int count = 0;
+
+			@Override
+			public boolean hasNext() {
+				if (count == 3)
+					throw failure;
+				return true;
+			}
+
+			@Override
+			public FileStatus next() {
+				count++;
+				return new FileStatus();
+			}
+		};
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try (PrefetchingStatusIterator iterator = new PrefetchingStatusIterator(
+				listing, 1, 2, executor)) {
+			int count = 0;
+			try {
+				while (iterator.hasNext()) {
+					iterator.next();
+					count++;
+				}
+				Assert.fail();
+			} catch (IOException e) {
+				Assert.assertSame(failure, e.getCause());
+			}
+			Assert.assertEquals(2, count);
+			Assert.assertFalse(iterator.hasNext());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testPrefetchingStatusIteratorEarlyClose() throws IOException,
+			InterruptedException {
+		for (final boolean slow : new boolean[] { false, true }) {
+			// an endless listing, the slow one turns an interrupt into an
+			// IOException as the ipc client does
+			RemoteIterator<FileStatus> listing = new RemoteIterator<FileStatus>() {
+				@Override
+				public boolean hasNext() throws IOException {
+					if (slow) {
+						try {
+							Thread.sleep(50);
+						} catch (InterruptedException e) {
+							throw new InterruptedIOException();
+						}
+					}
+					return true;
+				}
+
+				@Override
+				public FileStatus next() {
+					return new FileStatus();
+				}
+			};
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try (PrefetchingStatusIterator iterator = new PrefetchingStatusIterator(
+					listing, 1, 1, executor)) {
+				Assert.assertTrue(iterator.hasNext());
+				// lets the producer fill the queue and block or list on
+				Thread.sleep(200);
+			}
+			// the producer ends once the iterator is closed
+			executor.shutdown();
+			Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void testNewByteChannelZeroCopy() throws IOException {
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+
+			FileSystemProvider provider = fs.provider();
+			Path path = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			byte[] data = new byte[100 * 1024];
+			for (int i = 0; i < data.length; i++)
+				data[i] = (byte) i;
+			Files.write(path, data);
+			HadoopBufferPool pool = ((HadoopFileSystemProvider) provider)
+					.getBufferPool();
+			long inUse = pool.getBytesInUse();
+
+			try (SeekableByteChannel channel = provider.newByteChannel(path,
+					new HashSet<OpenOption>(Arrays.asList(
+							StandardOpenOption.DELETE_ON_CLOSE,
+							StandardOpenOption.READ,
+							HadoopOpenOption.ZERO_COPY,
+							HadoopOpenOption.SKIP_CHECKSUMS)))) {
+				ByteBuffer buffer = ByteBuffer.allocateDirect(data.length + 1);
+				int count;
+				while ((count = channel.read(buffer)) >= 0)
+					Assert.assertTrue(count <= pool.getDefaultSize());
+				buffer.flip();
+				byte[] read = new byte[buffer.remaining()];
+				buffer.get(read);
+				Assert.assertArrayEquals(data, read);
+			}
+			Assert.assertEquals(inUse, pool.getBytesInUse());
+		}
+	}
+
+	@Test
+	public void testNewFileChannelPathSetOfQextendsOpenOptionFileAttributeOfQArray()
+			throws IOException, InterruptedException {
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+
+			FileSystemProvider provider = fs.provider();
+			Path path = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			final byte[] data = new byte[64 * 1024];
+			for (int i = 0; i < data.length; i++)
+				data[i] = (byte) i;
+			try (FileChannel channel = provider.newFileChannel(path,
+					EnumSet.of(StandardOpenOption.CREATE_NEW,
+							StandardOpenOption.WRITE), new FileAttribute[0])) {
+				channel.write(ByteBuffer.wrap(data));
+				Assert.assertEquals((long) data.length, channel.size());
+			}
+
+			try (final FileChannel channel = provider.newFileChannel(path,
+					EnumSet.of(StandardOpenOption.DELETE_ON_CLOSE,
+							StandardOpenOption.READ), new FileAttribute[0])) {
+				final AtomicInteger errors = new AtomicInteger();
+				Thread[] threads = new Thread[4];
+				for (int t = 0; t < threads.length; t++) {
+					final int offset = t * 1000;
+					threads[t] = new Thread() {
+						@Override
+						public void run() {
+							try {
+								ByteBuffer buffer = ByteBuffer.allocate(100);
+								for (int pos = offset; pos < data.length
+										- buffer.capacity(); pos += 4000) {
+									buffer.clear();
+									while (buffer.hasRemaining())
+										channel.read(buffer,
+												pos + buffer.position());
+									if (!Arrays.equals(Arrays.copyOfRange(
+											data, pos, pos + 100), buffer
+											.array()))
+										errors.incrementAndGet();
+								}
+							} catch (IOException e) {
+								errors.incrementAndGet();
+							}
+						}
+					};
+					threads[t].start();
+				}
+				for (Thread thread : threads)
+					thread.join();
+				Assert.assertEquals(0, errors.get());
+				Assert.assertEquals(0L, channel.position());
+				Assert.assertEquals(-1,
+						channel.read(ByteBuffer.allocate(1), data.length));
+
+			}
+			Assert.assertFalse((boolean) Files.exists(path, new LinkOption[0]));
+		}
+	}
+
+	@Test
+	public void testBufferPool() throws IOException {
+		try (FileSystem fs = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+			HadoopBufferPool pool = ((HadoopFileSystemProvider) fs.provider())
+					.getBufferPool();
+			Path path = fs.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			Files.write(path, new byte[4096]);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+			long inUse = pool.getBytesInUse();
+			try (FileChannel channel = fs.provider().newFileChannel(path,
+					EnumSet.of(StandardOpenOption.READ,
+							StandardOpenOption.DELETE_ON_CLOSE))) {
+				Assert.assertTrue(channel.read(buffer, 0) > 0);
+				long misses = pool.getMisses();
+				long hits = pool.getHits();
+				for (int i = 0; i < 10; i++) {
+					buffer.clear();
+					Assert.assertTrue(channel.read(buffer, 0) > 0);
+				}
+				Assert.assertEquals(misses, pool.getMisses());
+				Assert.assertEquals(hits + 10, pool.getHits());
+			}
+			Assert.assertEquals(inUse, pool.getBytesInUse());
+
+			// buffers the pool did not hand out are not taken
+			long pooled = pool.getPooledBytes();
+			pool.putBuffer(ByteBuffer.allocate(8192));
+			Assert.assertEquals(inUse, pool.getBytesInUse());
+			Assert.assertEquals(pooled, pool.getPooledBytes());
+			ByteBuffer borrowed = pool.getBuffer();
+			pool.putBuffer(borrowed);
+			pool.putBuffer(borrowed);
+			Assert.assertEquals(inUse, pool.getBytesInUse());
+			ByteBuffer first = pool.getBuffer();
+			ByteBuffer second = pool.getBuffer();
+			Assert.assertNotSame(first, second);
+			pool.putBuffer(first);
+			pool.putBuffer(second);
+			Assert.assertEquals(inUse, pool.getBytesInUse());
+		}
+	}
+
 	@Test
 	public void testNewDirectoryStreamPathFilterOfQsuperPath()
 			throws IOException {
@@ -287,6 +1503,177 @@ public class HadoopFileSystemProviderTest extends HadoopTestBase {
 		}
 	}
 
+	@Test
+	public void testCopyRemoteTree() throws IOException {
+		try (FileSystem fileSystem = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+			String name = String.format("/tree%d", System.currentTimeMillis());
+			Path source = fileSystem.getPath(name + "/");
+			Path target = fileSystem.getPath(name + ".copy/");
+			Files.createDirectories(source.resolve("sub/empty"));
+			Files.write(source.resolve("a.txt"), new byte[] { 1, 2, 3 });
+			Files.write(source.resolve("sub/b.txt"), new byte[10000]);
+			FileTime time = FileTime.fromMillis(1000000000000L);
+			Files.setLastModifiedTime(source.resolve("a.txt"), time);
+			Files.setLastModifiedTime(source.resolve("sub"), time);
+
+			fileSystem.provider().copy(source, target,
+					StandardCopyOption.COPY_ATTRIBUTES,
+					HadoopCopyOption.REMOTE_COPY);
+			Assert.assertArrayEquals(new byte[] { 1, 2, 3 },
+					Files.readAllBytes(target.resolve("a.txt")));
+			Assert.assertEquals(10000, Files.size(target.resolve("sub/b.txt")));
+			Assert.assertTrue(Files.isDirectory(target.resolve("sub/empty")));
+			Assert.assertEquals(time,
+					Files.getLastModifiedTime(target.resolve("a.txt")));
+			Assert.assertEquals(time,
+					Files.getLastModifiedTime(target.resolve("sub")));
+			((HadoopFileSystemProvider) fileSystem.provider()).delete(source,
+					true);
+			((HadoopFileSystemProvider) fileSystem.provider()).delete(target,
+					true);
+		}
+	}
+
+	@Test
+	public void testCopyRemoteTreeReadOnly() throws Exception {
+		final String name = String.format("/readonly%d",
+				System.currentTimeMillis());
+		try (FileSystem fileSystem = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+			Path dir = Files.createDirectory(fileSystem.getPath(name + "/"));
+			Files.setPosixFilePermissions(dir,
+					PosixFilePermissions.fromString("rwxrwxrwx"));
+		}
+		// the owner of the cluster is a superuser, who ignores permissions
+		UserGroupInformation.createRemoteUser("copier").doAs(
+				new PrivilegedExceptionAction<Void>() {
+					@Override
+					public Void run() throws IOException {
+						try (FileSystem fileSystem = FileSystems
+								.newFileSystem(hdfsfile, System.getenv())) {
+							Path source = fileSystem.getPath(name + "/tree/");
+							Path target = fileSystem.getPath(name
+									+ "/tree.copy/");
+							Files.createDirectories(source.resolve("sub"));
+							Files.write(source.resolve("sub/a.txt"),
+									new byte[] { 1, 2, 3 });
+							Set<PosixFilePermission> readOnly = PosixFilePermissions
+									.fromString("r-xr-xr-x");
+							Files.setPosixFilePermissions(source.resolve("sub"),
+									readOnly);
+							Files.setPosixFilePermissions(source, readOnly);
+
+							fileSystem.provider().copy(source, target,
+									StandardCopyOption.COPY_ATTRIBUTES,
+									HadoopCopyOption.REMOTE_COPY);
+							Assert.assertArrayEquals(new byte[] { 1, 2, 3 },
+									Files.readAllBytes(target
+											.resolve("sub/a.txt")));
+							Assert.assertEquals(readOnly,
+									Files.getPosixFilePermissions(target));
+							Assert.assertEquals(readOnly, Files
+									.getPosixFilePermissions(target
+											.resolve("sub")));
+						}
+						return null;
+					}
+				});
+		try (FileSystem fileSystem = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+			((HadoopFileSystemProvider) fileSystem.provider()).delete(
+					fileSystem.getPath(name + "/"), true);
+		}
+	}
+
+	@Test
+	public void testCopySkipUnchanged() throws IOException {
+		try (FileSystem fileSystem = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+			HadoopFileSystemProvider provider = (HadoopFileSystemProvider) fileSystem
+					.provider();
+			Path path1 = fileSystem.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			Path path2 = path1.resolveSibling(path1.getFileName() + ".copy");
+			Files.write(path1, new byte[] { 1, 2, 3 });
+			provider.copy(path1, path2);
+			FileTime time = FileTime.fromMillis(1000000000000L);
+			Files.setLastModifiedTime(path2, time);
+
+			provider.copy(path1, path2, StandardCopyOption.REPLACE_EXISTING,
+					HadoopCopyOption.SKIP_UNCHANGED);
+			Assert.assertEquals(time, Files.getLastModifiedTime(path2));
+
+			Files.write(path1, new byte[] { 1, 2, 4 });
+			provider.copy(path1, path2, StandardCopyOption.REPLACE_EXISTING,
+					HadoopCopyOption.SKIP_UNCHANGED);
+			Assert.assertArrayEquals(new byte[] { 1, 2, 4 },
+					Files.readAllBytes(path2));
+			Files.delete(path1);
+			Files.delete(path2);
+		}
+	}
+
+	@Test
+	public void testSync() throws IOException {
+		try (FileSystem fileSystem = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+			HadoopFileSystemProvider provider = (HadoopFileSystemProvider) fileSystem
+					.provider();
+			String name = String.format("/sync%d", System.currentTimeMillis());
+			Path source = fileSystem.getPath(name + "/");
+			Path target = fileSystem.getPath(name + ".copy/");
+			Files.createDirectories(source.resolve("sub/"));
+			Files.write(source.resolve("a.txt"), new byte[] { 1, 2, 3 });
+			Files.write(source.resolve("sub/b.txt"), new byte[] { 4, 5 });
+			provider.sync(source, target);
+			Assert.assertArrayEquals(new byte[] { 4, 5 },
+					Files.readAllBytes(target.resolve("sub/b.txt")));
+
+			FileTime time = FileTime.fromMillis(1000000000000L);
+			Files.setLastModifiedTime(target.resolve("a.txt"), time);
+			Files.write(source.resolve("sub/b.txt"), new byte[] { 6, 7, 8 });
+			Files.write(target.resolve("extra.txt"), new byte[0]);
+			provider.sync(source, target);
+			Assert.assertEquals(time,
+					Files.getLastModifiedTime(target.resolve("a.txt")));
+			Assert.assertArrayEquals(new byte[] { 6, 7, 8 },
+					Files.readAllBytes(target.resolve("sub/b.txt")));
+			Assert.assertTrue(Files.exists(target.resolve("extra.txt")));
+
+			// a file in place of a directory is not merged into
+			Files.createDirectories(source.resolve("empty/"));
+			Files.write(target.resolve("empty"), new byte[0]);
+			try {
+				provider.sync(source, target);
+				Assert.fail();
+			} catch (IOException e) {
+				Assert.assertTrue(Files.isRegularFile(target.resolve("empty")));
+			}
+			provider.delete(source, true);
+			provider.delete(target, true);
+		}
+	}
+
+	@Test
+	public void testCopyRemoteDistCp() throws IOException {
+		Map<String, String> env = new HashMap<>(System.getenv());
+		env.put(HadoopConfigKeys.TREE_COPY_DISTCP_FILES_KEY, "0");
+		try (FileSystem fileSystem = FileSystems.newFileSystem(this.hdfsfile,
+				env)) {
+			Path path1 = fileSystem.getPath("/",
+					String.format("%d", System.currentTimeMillis()));
+			Path path2 = path1.resolveSibling(path1.getFileName() + ".copy");
+			Files.write(path1, new byte[100]);
+			fileSystem.provider().copy(path1, path2,
+					HadoopCopyOption.REMOTE_COPY);
+			Assert.assertTrue(Files.isRegularFile(path2));
+			Assert.assertEquals(100, Files.size(path2));
+			Files.delete(path1);
+			Files.delete(path2);
+		}
+	}
+
 	@Test
 	public void testMovePathPathCopyOptionArray() throws IOException {
 		try (FileSystem fileSystem = FileSystems.newFileSystem(this.hdfsfile,
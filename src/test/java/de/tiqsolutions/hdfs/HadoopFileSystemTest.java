@@ -20,15 +20,27 @@ package de.tiqsolutions.hdfs;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.ProviderMismatchException;
 import java.nio.file.attribute.GroupPrincipal;
 import java.nio.file.attribute.UserPrincipal;
 import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -172,4 +184,251 @@ public class HadoopFileSystemTest extends HadoopTestBase {
 
 		}
 	}
+
+	@Test
+	public void testReadAll() throws IOException {
+		try (FileSystem f = FileSystems.newFileSystem(this.hdfsfile,
+				System.getenv())) {
+			HadoopFileSystem fs = (HadoopFileSystem) f;
+			HadoopBufferPool pool = ((HadoopFileSystemProvider) fs.provider())
+					.getBufferPool();
+			String name = String.format("/bulk%d", System.currentTimeMillis());
+			Files.createDirectories(f.getPath(name + "/"));
+			List<Path> paths = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				Path path = f.getPath(name + "/", String.format("file%d", i));
+				Files.write(path, new byte[i * 100]);
+				paths.add(path);
+			}
+			paths.add(f.getPath(name + "/", "missing"));
+
+			final Map<Path, Integer> sizes = new ConcurrentHashMap<>();
+			final Set<Path> failed = Collections
+					.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+			long inUse = pool.getBytesInUse();
+			fs.readAll(paths, 4, new HadoopBulkReadHandler() {
+				@Override
+				public void completed(Path path, ByteBuffer contents) {
+					sizes.put(path, contents.remaining());
+				}
+
+				@Override
+				public void failed(Path path, IOException e) {
+					failed.add(path);
+				}
+			});
+			Assert.assertEquals(20, sizes.size());
+			for (int i = 0; i < 20; i++)
+				Assert.assertEquals(i * 100, (int) sizes.get(paths.get(i)));
+			Assert.assertEquals(Collections.singleton(paths.get(20)), failed);
+			Assert.assertEquals(inUse, pool.getBytesInUse());
+			((HadoopFileSystemProvider) fs.provider()).delete(
+					f.getPath(name + "/"), true);
+		}
+	}
+
+	@Test
+	public void testReadAllLargeAndMismatch() throws IOException,
+			InterruptedException {
+		Map<String, String> env = new HashMap<>(System.getenv());
+		env.put(HadoopConfigKeys.BUFFER_POOL_MAX_BYTES_KEY, "1048576");
+		try (FileSystem f = FileSystems.newFileSystem(this.hdfsfile, env)) {
+			HadoopFileSystem fs = (HadoopFileSystem) f;
+			HadoopBufferPool pool = fs.getBufferPool();
+			Assert.assertEquals(128 * 1024, pool.getMaxPooledSize());
+			String name = String.format("/bulk%d", System.currentTimeMillis());
+			Files.createDirectories(f.getPath(name + "/"));
+			Path small = f.getPath(name + "/", "small");
+			Path large = f.getPath(name + "/", "large");
+			Files.write(small, new byte[1000]);
+			Files.write(large, new byte[300000]);
+
+			// files above the largest pooled size get exact buffers
+			final Map<Path, Integer> capacities = new ConcurrentHashMap<>();
+			fs.readAll(Arrays.asList(small, large), 2,
+					new HadoopBulkReadHandler() {
+						@Override
+						public void completed(Path path, ByteBuffer contents) {
+							capacities.put(path, contents.capacity());
+						}
+
+						@Override
+						public void failed(Path path, IOException e) {
+						}
+					});
+			Assert.assertEquals(4096, (int) capacities.get(small));
+			Assert.assertEquals(300000, (int) capacities.get(large));
+			Assert.assertEquals(0, pool.getBytesInUse());
+
+			// no handler call follows a failed readAll
+			List<Path> paths = new ArrayList<>();
+			for (int i = 0; i < 4; i++)
+				paths.add(small);
+			paths.add(FileSystems.getDefault().getPath("foreign"));
+			final AtomicInteger calls = new AtomicInteger();
+			try {
+				fs.readAll(paths, 4, new HadoopBulkReadHandler() {
+					@Override
+					public void completed(Path path, ByteBuffer contents) {
+						try {
+							Thread.sleep(200);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						calls.incrementAndGet();
+					}
+
+					@Override
+					public void failed(Path path, IOException e) {
+					}
+				});
+				Assert.fail();
+			} catch (ProviderMismatchException e) {
+			}
+			Assert.assertEquals(4, calls.get());
+			Thread.sleep(300);
+			Assert.assertEquals(4, calls.get());
+			((HadoopFileSystemProvider) fs.provider()).delete(
+					f.getPath(name + "/"), true);
+		}
+	}
+
+	@Test
+	public void testWalk() throws IOException {
+		// attribute reads of the listed paths are answered by the listing
+		Map<String, String> env = new HashMap<>(System.getenv());
+		env.put(HadoopConfigKeys.LISTING_STATUS_MAX_AGE_KEY, "60000");
+		try (FileSystem f = FileSystems.newFileSystem(this.hdfsfile, env)) {
+			HadoopFileSystem fs = (HadoopFileSystem) f;
+			String name = String.format("/walk%d", System.currentTimeMillis());
+			Path root = f.getPath(name + "/");
+			Files.createDirectories(f.getPath(name + "/a/b/c/"));
+			Files.createDirectories(f.getPath(name + "/skip/"));
+			Files.write(f.getPath(name + "/a/b/c/file"), new byte[1]);
+			Files.write(f.getPath(name + "/a/x.txt"), new byte[1]);
+			Files.write(f.getPath(name + "/skip/y.txt"), new byte[1]);
+			DirectoryStream.Filter<Path> all = new DirectoryStream.Filter<Path>() {
+				@Override
+				public boolean accept(Path entry) {
+					return true;
+				}
+			};
+
+			long requests = fs.getStatistics().getFileStatusRequests();
+			int count = 0;
+			try (DirectoryStream<Path> stream = fs.walk(root,
+					Integer.MAX_VALUE, all)) {
+				for (Path path : stream) {
+					Files.isDirectory(path);
+					count++;
+				}
+			}
+			Assert.assertEquals(8, count);
+			Assert.assertEquals(requests + 1, fs.getStatistics()
+					.getFileStatusRequests());
+
+			Set<String> names = new HashSet<>();
+			try (DirectoryStream<Path> stream = fs.walk(root, 1, all)) {
+				for (Path path : stream)
+					names.add(path.getFileName().toString());
+			}
+			Assert.assertEquals(3, names.size());
+			Assert.assertTrue(names.contains("skip"));
+
+			count = 0;
+			try (DirectoryStream<Path> stream = fs.walk(root,
+					Integer.MAX_VALUE, new DirectoryStream.Filter<Path>() {
+						@Override
+						public boolean accept(Path entry) {
+							return !"skip".equals(entry.getFileName()
+									.toString());
+						}
+					})) {
+				for (@SuppressWarnings("unused")
+				Path path : stream)
+					count++;
+			}
+			Assert.assertEquals(7, count);
+			((HadoopFileSystemProvider) f.provider()).delete(root, true);
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void testWalkFailure() throws IOException {
+		// the failure reaches the consumer past a full queue
+		Map<String, String> env = new HashMap<>(System.getenv());
+		env.put(HadoopConfigKeys.WALKER_QUEUE_SIZE_KEY, "1");
+		try (FileSystem f = FileSystems.newFileSystem(this.hdfsfile, env)) {
+			HadoopFileSystem fs = (HadoopFileSystem) f;
+			String name = String.format("/walkfail%d",
+					System.currentTimeMillis());
+			Path root = f.getPath(name + "/");
+			for (int i = 0; i < 20; i++)
+				Files.createDirectories(f.getPath(name + "/d" + i + "/e/"));
+			final IllegalStateException failure = new IllegalStateException();
+			try (DirectoryStream<Path> stream = fs.walk(root,
+					Integer.MAX_VALUE, new DirectoryStream.Filter<Path>() {
+						@Override
+						public boolean accept(Path entry) {
+							if ("d7".equals(entry.getFileName().toString()))
+								throw failure;
+							return true;
+						}
+					})) {
+				for (@SuppressWarnings("unused")
+				Path path : stream)
+					;
+				Assert.fail();
+			} catch (IllegalStateException e) {
+				Assert.assertSame(failure, e);
+			}
+			((HadoopFileSystemProvider) f.provider()).delete(root, true);
+		}
+	}
+
+	@Test
+	public void testNewDirectoryStreamGlob() throws IOException {
+		// attribute reads of the listed paths are answered by the listing
+		Map<String, String> env = new HashMap<>(System.getenv());
+		env.put(HadoopConfigKeys.LISTING_STATUS_MAX_AGE_KEY, "60000");
+		try (FileSystem f = FileSystems.newFileSystem(this.hdfsfile, env)) {
+			HadoopFileSystem fs = (HadoopFileSystem) f;
+			String name = String.format("/glob%d", System.currentTimeMillis());
+			Path root = f.getPath(name + "/");
+			for (String file : Arrays.asList("2024-01/part-0",
+					"2024-02/part-1", "2023-12/part-2", "2024-01/other")) {
+				Path path = f.getPath(name + "/" + file);
+				Files.createDirectories(path.getParent());
+				Files.write(path, new byte[1]);
+			}
+			long requests = fs.getStatistics().getFileStatusRequests();
+			Set<String> names = new HashSet<>();
+			try (DirectoryStream<Path> stream = fs.newDirectoryStream(root,
+					"2024-*/part-*")) {
+				for (Path path : stream) {
+					Assert.assertTrue(Files.isRegularFile(path));
+					names.add(path.getFileName().toString());
+				}
+			}
+			Assert.assertEquals(
+					new HashSet<>(Arrays.asList("part-0", "part-1")), names);
+			Assert.assertEquals(requests, fs.getStatistics()
+					.getFileStatusRequests());
+
+			int count = 0;
+			try (DirectoryStream<Path> stream = fs.newDirectoryStream(root,
+					"{2023,2024}-*")) {
+				for (Path path : stream) {
+					Assert.assertTrue(Files.isDirectory(path));
+					count++;
+				}
+			}
+			Assert.assertEquals(3, count);
+			try (DirectoryStream<Path> stream = fs.newDirectoryStream(root,
+					"2025-*")) {
+				Assert.assertFalse(stream.iterator().hasNext());
+			}
+			((HadoopFileSystemProvider) f.provider()).delete(root, true);
+		}
+	}
 }
@@ -43,7 +43,7 @@ public abstract class HadoopTestBase {
 	private static URI HDFS_BASE_URI;
 	private static URI WEBHDFS_BASE_URI;
 	protected final URI BASE_URI;
-	private static MiniDFSCluster hdfsCluster;
+	protected static MiniDFSCluster hdfsCluster;
 
 	@Parameters
 	public static Iterable<String[]> data() {